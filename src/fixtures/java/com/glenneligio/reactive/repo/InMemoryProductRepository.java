@@ -0,0 +1,515 @@
+package com.glenneligio.reactive.repo;
+
+import com.glenneligio.reactive.dto.BulkWriteResultDto;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import com.glenneligio.reactive.dto.ProductStatsDto;
+import com.glenneligio.reactive.dto.QueryPlanDto;
+import com.glenneligio.reactive.entity.Product;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.reactivestreams.Publisher;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Range;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.repository.query.FluentQuery;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * {@link ProductRepository} that keeps products in memory, used instead of MongoDB when the "inmemory" profile is active.
+ * Lets benchmarks and load tests measure this service on its own, without a database or Docker.
+ * It lives in src/fixtures, which only the jmh and loadtest builds compile, so it is not shipped with the application.
+ * Products are stored as copies ordered by id, and versions are checked like the MongoDB repository does.
+ * Soft deleted products are kept and left out of all reads, as there is no TTL index to purge them.
+ */
+@Repository
+@Primary
+@Profile("inmemory")
+public class InMemoryProductRepository implements ProductRepository {
+
+    private final ConcurrentNavigableMap<String, Product> products = new ConcurrentSkipListMap<>();
+
+    @Override
+    public Flux<Product> findByPriceBetweenAndDeletedAtIsNull(Range<Double> priceRange) {
+        return find(product -> priceRange.contains(product.getPrice()), Sort.unsorted());
+    }
+
+    @Override
+    public Flux<Product> findByPriceBetweenAndDeletedAtIsNull(Range<Double> priceRange, Sort sort) {
+        return find(product -> priceRange.contains(product.getPrice()), sort);
+    }
+
+    @Override
+    public Flux<Product> findByPriceBetweenAndDeletedAtIsNull(Range<Double> priceRange, Pageable pageable) {
+        return find(product -> priceRange.contains(product.getPrice()), pageable);
+    }
+
+    @Override
+    public Flux<Product> findByIdGreaterThanAndDeletedAtIsNull(String id, Sort sort) {
+        return find(product -> product.getId().compareTo(id) > 0, sort);
+    }
+
+    @Override
+    public Flux<Product> findByNameStartingWithIgnoreCaseAndDeletedAtIsNull(String prefix, Pageable pageable) {
+        String lowerPrefix = prefix.toLowerCase(Locale.ROOT);
+        return find(product -> product.getName() != null && product.getName().toLowerCase(Locale.ROOT).startsWith(lowerPrefix), pageable);
+    }
+
+    @Override
+    public Mono<BulkWriteResultDto> bulkUpsert(List<Product> batch) {
+        return Mono.fromSupplier(() -> {
+            BulkWriteResultDto result = new BulkWriteResultDto(0, batch.size(), 0, 0, 0, 0);
+            for (Product product : batch) {
+                if (product.getId() == null) {
+                    product.setId(new ObjectId().toHexString());
+                    Product stored = copy(product);
+                    stored.setVersion(0L);
+                    products.put(stored.getId(), stored);
+                    result.setInserted(result.getInserted() + 1);
+                    continue;
+                }
+                AtomicReference<Product> previous = new AtomicReference<>();
+                AtomicBoolean written = new AtomicBoolean();
+                products.compute(product.getId(), (id, current) -> {
+                    previous.set(current);
+                    written.set(current == null
+                            ? product.getVersion() == null
+                            : current.getDeletedAt() == null && (product.getVersion() == null || product.getVersion().equals(current.getVersion())));
+                    if (!written.get()) {
+                        return current;
+                    }
+                    // Like $inc, a missing version starts at 1
+                    return new Product(id, product.getName(), product.getQty(), product.getPrice(), current == null ? 1L : nextVersion(current));
+                });
+                if (!written.get()) {
+                    result.setFailed(result.getFailed() + 1);
+                } else if (previous.get() == null) {
+                    result.setUpserted(result.getUpserted() + 1);
+                } else {
+                    result.setModified(result.getModified() + 1);
+                }
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public Mono<Revision> replaceProduct(String id, Product product) {
+        return modify(id, product.getVersion(), current -> new Product(id, product.getName(), product.getQty(),
+                product.getPrice(), nextVersion(current)));
+    }
+
+    @Override
+    public Mono<Revision> patchProduct(String id, ProductPatchDto patch) {
+        return modify(id, patch.getVersion(), current -> {
+            Product patched = copy(current);
+            if (patch.getName() != null) {
+                patched.setName(patch.getName());
+            }
+            if (patch.getQty() != null) {
+                patched.setQty(patch.getQty());
+            }
+            if (patch.getQtyDelta() != null) {
+                patched.setQty(patched.getQty() + patch.getQtyDelta());
+            }
+            if (patch.getPrice() != null) {
+                patched.setPrice(patch.getPrice());
+            }
+            patched.setVersion(nextVersion(current));
+            return patched;
+        });
+    }
+
+    @Override
+    public Mono<Long> deleteProducts(Collection<String> ids, Range<Double> priceRange) {
+        return Mono.fromSupplier(() -> candidates(ids, priceRange).stream()
+                .filter(product -> products.remove(product.getId(), product))
+                .count());
+    }
+
+    @Override
+    public Mono<Long> softDeleteProducts(Collection<String> ids, Range<Double> priceRange, Instant deletedAt) {
+        return Mono.fromSupplier(() -> candidates(ids, priceRange).stream()
+                .filter(product -> product.getDeletedAt() == null)
+                .filter(product -> {
+                    Product deleted = copy(product);
+                    deleted.setDeletedAt(deletedAt);
+                    deleted.setVersion(nextVersion(product));
+                    return products.replace(product.getId(), product, deleted);
+                })
+                .count());
+    }
+
+    @Override
+    public Mono<QueryPlanDto> explainPriceRange(double min, double max, Sort.Direction direction, Integer limit) {
+        return findByPriceBetweenAndDeletedAtIsNull(Range.closed(min, max)).count()
+                .map(count -> new QueryPlanDto(false, null, "IN_MEMORY_SCAN", 0, products.size(), count));
+    }
+
+    /**
+     * Automatic buckets split the products sorted by price into groups of about the same size,
+     * without the rounding the database applies to their boundaries
+     */
+    @Override
+    public Mono<ProductStatsDto> priceStats(Range<Double> priceRange, List<Double> boundaries, int buckets) {
+        return find(product -> priceRange == null || priceRange.contains(product.getPrice()), Sort.by("price"))
+                .collectList()
+                .map(matches -> {
+                    DoubleSummaryStatistics prices = matches.stream().mapToDouble(Product::getPrice).summaryStatistics();
+                    long totalQty = matches.stream().mapToLong(Product::getQty).sum();
+                    double stockValue = matches.stream().mapToDouble(product -> product.getPrice() * product.getQty()).sum();
+                    boolean any = !matches.isEmpty();
+                    return new ProductStatsDto(matches.size(), totalQty, stockValue,
+                            any ? prices.getMin() : null, any ? prices.getMax() : null, any ? prices.getAverage() : null,
+                            boundaries == null ? autoBuckets(matches, buckets) : boundedBuckets(matches, boundaries));
+                });
+    }
+
+    /**
+     * Ranks products by the number of search words found in their name, ignoring case and without stemming
+     */
+    @Override
+    public Flux<Product> searchByName(String text, int limit) {
+        List<String> words = List.of(text.toLowerCase(Locale.ROOT).split("\\s+"));
+        return find(product -> product.getName() != null, Sort.unsorted())
+                .map(product -> Tuples.of(product, words.stream()
+                        .filter(word -> !word.isEmpty() && product.getName().toLowerCase(Locale.ROOT).contains(word))
+                        .count()))
+                .filter(scored -> scored.getT2() > 0)
+                .sort(Comparator.comparing(Tuple2::getT2, Comparator.reverseOrder()))
+                .take(limit)
+                .map(Tuple2::getT1);
+    }
+
+    @Override
+    public Flux<Document> exportProducts(List<String> fields, int batchSize) {
+        return find(product -> true, Sort.by("id"))
+                .map(product -> {
+                    Document document = new Document();
+                    for (String field : fields) {
+                        switch (field) {
+                            case "id" -> document.put("_id", ObjectId.isValid(product.getId()) ? new ObjectId(product.getId()) : product.getId());
+                            case "name" -> document.put("name", product.getName());
+                            case "qty" -> document.put("qty", product.getQty());
+                            case "price" -> document.put("price", product.getPrice());
+                            case "version" -> document.put("version", product.getVersion());
+                            default -> throw new IllegalArgumentException("Cannot export product field " + field);
+                        }
+                    }
+                    return document;
+                });
+    }
+
+    @Override
+    public <S extends Product> Mono<S> save(S entity) {
+        return Mono.fromSupplier(() -> {
+            if (entity.getId() == null) {
+                entity.setId(new ObjectId().toHexString());
+            }
+            products.compute(entity.getId(), (id, current) -> {
+                Long currentVersion = current == null ? null : current.getVersion();
+                if (!Objects.equals(currentVersion, entity.getVersion())) {
+                    throw new OptimisticLockingFailureException("Product " + id + " is not at version " + entity.getVersion());
+                }
+                entity.setVersion(nextVersion(current));
+                return copy(entity);
+            });
+            return entity;
+        });
+    }
+
+    @Override
+    public <S extends Product> Flux<S> saveAll(Iterable<S> entities) {
+        return Flux.fromIterable(entities).concatMap(this::save);
+    }
+
+    @Override
+    public <S extends Product> Flux<S> saveAll(Publisher<S> entityStream) {
+        return Flux.from(entityStream).concatMap(this::save);
+    }
+
+    @Override
+    public <S extends Product> Mono<S> insert(S entity) {
+        return Mono.fromSupplier(() -> {
+            if (entity.getId() == null) {
+                entity.setId(new ObjectId().toHexString());
+            }
+            if (entity.getVersion() == null) {
+                entity.setVersion(0L);
+            }
+            // Like the unique _id index, soft deleted products keep their id taken
+            if (products.putIfAbsent(entity.getId(), copy(entity)) != null) {
+                throw new DuplicateKeyException("Product " + entity.getId() + " already exists");
+            }
+            return entity;
+        });
+    }
+
+    @Override
+    public <S extends Product> Flux<S> insert(Iterable<S> entities) {
+        return Flux.fromIterable(entities).concatMap(this::insert);
+    }
+
+    @Override
+    public <S extends Product> Flux<S> insert(Publisher<S> entities) {
+        return Flux.from(entities).concatMap(this::insert);
+    }
+
+    @Override
+    public Mono<Product> findById(String id) {
+        return Mono.fromSupplier(() -> products.get(id))
+                .filter(product -> product.getDeletedAt() == null)
+                .map(InMemoryProductRepository::copy);
+    }
+
+    @Override
+    public Mono<Product> findById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::findById);
+    }
+
+    @Override
+    public Mono<Boolean> existsById(String id) {
+        return findById(id).hasElement();
+    }
+
+    @Override
+    public Mono<Boolean> existsById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::existsById);
+    }
+
+    @Override
+    public Flux<Product> findAll() {
+        return find(product -> true, Sort.unsorted());
+    }
+
+    @Override
+    public Flux<Product> findAll(Sort sort) {
+        return find(product -> true, sort);
+    }
+
+    @Override
+    public Flux<Product> findAllById(Iterable<String> ids) {
+        return Flux.fromIterable(ids).concatMap(this::findById);
+    }
+
+    @Override
+    public Flux<Product> findAllById(Publisher<String> idStream) {
+        return Flux.from(idStream).concatMap(this::findById);
+    }
+
+    @Override
+    public Mono<Long> count() {
+        return find(product -> true, Sort.unsorted()).count();
+    }
+
+    @Override
+    public Flux<Product> findPage(String afterId, int limit) {
+        return find(product -> afterId == null || product.getId().compareTo(afterId) > 0, Sort.by("id")).take(limit);
+    }
+
+    @Override
+    public Mono<Void> deleteById(String id) {
+        return Mono.fromRunnable(() -> products.remove(id));
+    }
+
+    @Override
+    public Mono<Void> deleteById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::deleteById);
+    }
+
+    @Override
+    public Mono<Void> delete(Product entity) {
+        return deleteById(entity.getId());
+    }
+
+    @Override
+    public Mono<Void> deleteAllById(Iterable<? extends String> ids) {
+        return Mono.fromRunnable(() -> ids.forEach(products::remove));
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Iterable<? extends Product> entities) {
+        return Mono.fromRunnable(() -> entities.forEach(entity -> products.remove(entity.getId())));
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Publisher<? extends Product> entityStream) {
+        return Flux.from(entityStream).concatMap(this::delete).then();
+    }
+
+    @Override
+    public Mono<Void> deleteAll() {
+        return Mono.fromRunnable(products::clear);
+    }
+
+    @Override
+    public <S extends Product> Mono<S> findOne(Example<S> example) {
+        return Mono.error(new UnsupportedOperationException("Query by example is not supported in memory"));
+    }
+
+    @Override
+    public <S extends Product> Flux<S> findAll(Example<S> example) {
+        return Flux.error(new UnsupportedOperationException("Query by example is not supported in memory"));
+    }
+
+    @Override
+    public <S extends Product> Flux<S> findAll(Example<S> example, Sort sort) {
+        return Flux.error(new UnsupportedOperationException("Query by example is not supported in memory"));
+    }
+
+    @Override
+    public <S extends Product> Mono<Long> count(Example<S> example) {
+        return Mono.error(new UnsupportedOperationException("Query by example is not supported in memory"));
+    }
+
+    @Override
+    public <S extends Product> Mono<Boolean> exists(Example<S> example) {
+        return Mono.error(new UnsupportedOperationException("Query by example is not supported in memory"));
+    }
+
+    @Override
+    public <S extends Product, R, P extends Publisher<R>> P findBy(Example<S> example,
+                                                                  Function<FluentQuery.ReactiveFluentQuery<S>, P> queryFunction) {
+        throw new UnsupportedOperationException("Query by example is not supported in memory");
+    }
+
+    private Flux<Product> find(Predicate<Product> filter, Pageable pageable) {
+        Flux<Product> matches = find(filter, pageable.getSort());
+        return pageable.isPaged()
+                ? matches.skip(pageable.getOffset()).take(pageable.getPageSize())
+                : matches;
+    }
+
+    private Flux<Product> find(Predicate<Product> filter, Sort sort) {
+        Flux<Product> matches = Flux.defer(() -> Flux.fromIterable(products.values()))
+                .filter(product -> product.getDeletedAt() == null && filter.test(product))
+                .map(InMemoryProductRepository::copy);
+        return sort.isSorted() ? matches.sort(comparator(sort)) : matches;
+    }
+
+    /**
+     * Stored products with one of the ids, or with a price in the range if ids is null. Deletes only apply to them
+     * if they are still stored unchanged, like a deleteMany or updateMany does not touch documents that no longer match.
+     */
+    private List<Product> candidates(Collection<String> ids, Range<Double> priceRange) {
+        if (ids != null) {
+            return ids.stream().distinct().map(products::get).filter(Objects::nonNull).toList();
+        }
+        return products.values().stream().filter(product -> priceRange.contains(product.getPrice())).toList();
+    }
+
+    private static List<ProductStatsDto.PriceBucket> boundedBuckets(List<Product> sortedByPrice, List<Double> boundaries) {
+        List<ProductStatsDto.PriceBucket> buckets = new ArrayList<>();
+        ProductStatsDto.PriceBucket other = new ProductStatsDto.PriceBucket(null, null, 0, 0);
+        for (Product product : sortedByPrice) {
+            int index = 0;
+            while (index + 1 < boundaries.size() && product.getPrice() >= boundaries.get(index + 1)) {
+                index++;
+            }
+            if (product.getPrice() < boundaries.get(0) || index + 1 == boundaries.size()) {
+                add(other, product);
+                continue;
+            }
+            Double min = boundaries.get(index);
+            ProductStatsDto.PriceBucket last = buckets.isEmpty() ? null : buckets.get(buckets.size() - 1);
+            if (last == null || !min.equals(last.getMin())) {
+                last = new ProductStatsDto.PriceBucket(min, boundaries.get(index + 1), 0, 0);
+                buckets.add(last);
+            }
+            add(last, product);
+        }
+        if (other.getCount() > 0) {
+            buckets.add(other);
+        }
+        return buckets;
+    }
+
+    private static List<ProductStatsDto.PriceBucket> autoBuckets(List<Product> sortedByPrice, int buckets) {
+        List<ProductStatsDto.PriceBucket> result = new ArrayList<>();
+        int size = (int) Math.ceil((double) sortedByPrice.size() / buckets);
+        for (int from = 0; from < sortedByPrice.size(); from += size) {
+            List<Product> group = sortedByPrice.subList(from, Math.min(from + size, sortedByPrice.size()));
+            ProductStatsDto.PriceBucket bucket = new ProductStatsDto.PriceBucket(group.get(0).getPrice(),
+                    group.get(group.size() - 1).getPrice(), 0, 0);
+            group.forEach(product -> add(bucket, product));
+            result.add(bucket);
+        }
+        return result;
+    }
+
+    private static void add(ProductStatsDto.PriceBucket bucket, Product product) {
+        bucket.setCount(bucket.getCount() + 1);
+        bucket.setTotalQty(bucket.getTotalQty() + product.getQty());
+    }
+
+    /**
+     * Applies the modification if the product exists and, when a version is given, is still at that version
+     */
+    private Mono<Revision> modify(String id, Long version, Function<Product, Product> modification) {
+        return Mono.fromSupplier(() -> {
+            AtomicReference<Product> previous = new AtomicReference<>();
+            Product result = products.computeIfPresent(id, (key, current) -> {
+                if (current.getDeletedAt() != null || version != null && !version.equals(current.getVersion())) {
+                    return current;
+                }
+                previous.set(current);
+                return modification.apply(current);
+            });
+            return previous.get() != null ? new Revision(copy(previous.get()), copy(result)) : null;
+        });
+    }
+
+    /**
+     * New products start at version 0, and $inc on a missing version field starts at 1
+     */
+    private static Long nextVersion(Product current) {
+        if (current == null) {
+            return 0L;
+        }
+        return current.getVersion() == null ? 1L : current.getVersion() + 1;
+    }
+
+    private static Product copy(Product product) {
+        return new Product(product.getId(), product.getName(), product.getQty(), product.getPrice(), product.getVersion(),
+                product.getDeletedAt());
+    }
+
+    private static Comparator<Product> comparator(Sort sort) {
+        Comparator<Product> comparator = null;
+        for (Sort.Order order : sort) {
+            Comparator<Product> next = switch (order.getProperty()) {
+                case "id" -> Comparator.comparing(Product::getId);
+                case "name" -> Comparator.comparing(Product::getName, Comparator.nullsFirst(Comparator.naturalOrder()));
+                case "qty" -> Comparator.comparingInt(Product::getQty);
+                case "price" -> Comparator.comparingDouble(Product::getPrice);
+                default -> throw new IllegalArgumentException("Cannot sort products by " + order.getProperty());
+            };
+            next = order.isDescending() ? next.reversed() : next;
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        return comparator;
+    }
+}
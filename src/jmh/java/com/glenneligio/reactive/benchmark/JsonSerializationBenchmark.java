@@ -0,0 +1,57 @@
+package com.glenneligio.reactive.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.glenneligio.reactive.dto.ProductDto;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing lists of {@link ProductDto} with the ObjectMapper configuration Spring uses for responses
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonSerializationBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    private int size;
+
+    private List<ProductDto> products;
+    private ObjectWriter listWriter;
+    private ObjectWriter itemWriter;
+
+    @Setup
+    public void setup() {
+        ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+        listWriter = mapper.writerFor(mapper.getTypeFactory().constructCollectionType(List.class, ProductDto.class));
+        itemWriter = mapper.writerFor(ProductDto.class);
+        products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            products.add(new ProductDto(new ObjectId().toHexString(), "Product" + i, i % 100, 10 + i * 0.25, 1L));
+        }
+    }
+
+    @Benchmark
+    public byte[] jsonArray() throws JsonProcessingException {
+        return listWriter.writeValueAsBytes(products);
+    }
+
+    @Benchmark
+    public long ndjson() throws JsonProcessingException {
+        long length = 0;
+        for (ProductDto product : products) {
+            length += itemWriter.writeValueAsBytes(product).length + 1;
+        }
+        return length;
+    }
+}
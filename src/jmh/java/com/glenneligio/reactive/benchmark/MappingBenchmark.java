@@ -0,0 +1,56 @@
+package com.glenneligio.reactive.benchmark;
+
+import com.glenneligio.reactive.dto.ProductDto;
+import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.util.AppUtils;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.BeanUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the hand written mapping in {@link AppUtils} with the BeanUtils.copyProperties mapping it replaced
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+
+    private Product product;
+    private ProductDto dto;
+
+    @Setup
+    public void setup() {
+        product = new Product(new ObjectId().toHexString(), "Product1", 10, 20.5);
+        product.setVersion(3L);
+        dto = AppUtils.entityToDto(product);
+    }
+
+    @Benchmark
+    public ProductDto entityToDto() {
+        return AppUtils.entityToDto(product);
+    }
+
+    @Benchmark
+    public ProductDto entityToDtoWithBeanUtils() {
+        ProductDto result = new ProductDto();
+        BeanUtils.copyProperties(product, result);
+        return result;
+    }
+
+    @Benchmark
+    public Product dtoToEntity() {
+        return AppUtils.dtoToEntity(dto);
+    }
+
+    @Benchmark
+    public Product dtoToEntityWithBeanUtils() {
+        Product result = new Product();
+        BeanUtils.copyProperties(dto, result);
+        return result;
+    }
+}
@@ -0,0 +1,148 @@
+package com.glenneligio.reactive.benchmark;
+
+import com.glenneligio.reactive.Application;
+import com.glenneligio.reactive.dto.ProductDto;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.repo.ProductRepository;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs requests through the whole WebFlux handler chain of {@link com.glenneligio.reactive.controller.ProductController},
+ * service and mapping, with the application started on the "inmemory" profile so no database time is measured.
+ * Requests are dispatched in process, so Netty and the network are not part of the numbers either.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductControllerBenchmark {
+
+    @Param({"1000"})
+    private int catalogSize;
+
+    private ConfigurableApplicationContext context;
+    private WebTestClient client;
+    private List<String> ids;
+    private List<ProductDto> bulkBatch;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(Application.class)
+                .profiles("inmemory")
+                .properties("spring.main.banner-mode=off",
+                        "spring.devtools.restart.enabled=false",
+                        "logging.level.root=WARN",
+                        "server.port=0")
+                .run();
+        client = WebTestClient.bindToApplicationContext(context).build();
+
+        ProductRepository repository = context.getBean(ProductRepository.class);
+        ids = new ArrayList<>(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            Product product = repository.save(new Product("Product" + i, i % 100, 10 + i * 0.25)).block();
+            ids.add(product.getId());
+        }
+        bulkBatch = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            bulkBatch.add(new ProductDto(new ObjectId().toHexString(), "Bulk" + i, i, 5 + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] getProductsPage() {
+        return client.get().uri("/products?limit=100")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] streamAllProducts() {
+        return client.get().uri("/products")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] getProductById() {
+        return client.get().uri("/products/{id}", randomId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] getProductsByPriceRange() {
+        return client.get().uri("/products/range?min=50&max=75")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] saveThenDeleteProduct() {
+        ProductDto saved = client.post().uri("/products")
+                .bodyValue(new ProductDto(null, "New", 1, 9.99))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ProductDto.class).returnResult().getResponseBody();
+        return client.delete().uri("/products/{id}", saved.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] updateProduct() {
+        return client.put().uri("/products/{id}", randomId())
+                .bodyValue(new ProductDto(null, "Updated", 5, 12.5))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] patchProduct() {
+        return client.patch().uri("/products/{id}", randomId())
+                .bodyValue(new ProductPatchDto(null, null, 1, null, null))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] bulkSaveProducts() {
+        return client.post().uri("/products/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body(Flux.fromIterable(bulkBatch), ProductDto.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseBody();
+    }
+
+    private String randomId() {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+}
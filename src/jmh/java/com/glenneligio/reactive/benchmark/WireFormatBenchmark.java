@@ -0,0 +1,90 @@
+package com.glenneligio.reactive.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.glenneligio.reactive.dto.ProductDto;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode cost of lists of {@link ProductDto} as JSON and as Smile, with the ObjectMappers the default codecs use.
+ * The encode benchmarks report the payload size in bytes as the secondary result "payloadBytes".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int size;
+
+    private List<ProductDto> products;
+    private ObjectWriter jsonWriter;
+    private ObjectWriter smileWriter;
+    private ObjectReader jsonReader;
+    private ObjectReader smileReader;
+    private byte[] json;
+    private byte[] smile;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+        ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+        jsonWriter = jsonMapper.writerFor(jsonMapper.getTypeFactory().constructCollectionType(List.class, ProductDto.class));
+        smileWriter = smileMapper.writerFor(smileMapper.getTypeFactory().constructCollectionType(List.class, ProductDto.class));
+        jsonReader = jsonMapper.readerFor(jsonMapper.getTypeFactory().constructCollectionType(List.class, ProductDto.class));
+        smileReader = smileMapper.readerFor(smileMapper.getTypeFactory().constructCollectionType(List.class, ProductDto.class));
+        products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            products.add(new ProductDto(new ObjectId().toHexString(), "Product" + i, i % 100, 10 + i * 0.25, 1L));
+        }
+        json = jsonWriter.writeValueAsBytes(products);
+        smile = smileWriter.writeValueAsBytes(products);
+    }
+
+    /** Size of the last encoded payload, reported next to the encode time */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Payload {
+        public long payloadBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            payloadBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeJson(Payload payload) throws IOException {
+        byte[] bytes = jsonWriter.writeValueAsBytes(products);
+        payload.payloadBytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] encodeSmile(Payload payload) throws IOException {
+        byte[] bytes = smileWriter.writeValueAsBytes(products);
+        payload.payloadBytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public List<ProductDto> decodeJson() throws IOException {
+        return jsonReader.readValue(json);
+    }
+
+    @Benchmark
+    public List<ProductDto> decodeSmile() throws IOException {
+        return smileReader.readValue(smile);
+    }
+}
@@ -0,0 +1,87 @@
+package com.glenneligio.reactive.loadtest;
+
+import lombok.Data;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Options of {@link LoadTestRunner}, parsed from --name=value arguments.
+ * Arguments it does not know are passed on to the application it starts, e.g. --server.netty.idle-timeout=30s.
+ */
+@Data
+public class LoadTestOptions {
+
+    /** Base url of a running service, or null to start the application on the "inmemory" profile */
+    private String url;
+    /** Requests per second sent regardless of how fast responses come back */
+    private double rps = 500;
+    /** Time during which latencies are recorded */
+    private Duration duration = Duration.ofSeconds(30);
+    /** Time the load runs before latencies are recorded, so the JIT and caches are warm */
+    private Duration warmup = Duration.ofSeconds(10);
+    /** Relative weights of the operations, e.g. get:60,range:15,create:5 */
+    private Map<Operation, Integer> mix = parseMix("get:60,page:10,range:15,create:5,update:10");
+    /** Number of products stored before the load starts */
+    private int catalogSize = 1000;
+    /** Requests in flight after which due requests are skipped and counted as such, bounds the connections opened */
+    private int maxInFlight = 512;
+    /** Time after which a request counts as failed */
+    private Duration timeout = Duration.ofSeconds(5);
+    /** Directory the latency histograms are written to, or null to only print the summary */
+    private Path reportDir;
+    /** Arguments passed on to the started application */
+    private List<String> applicationArgs = new ArrayList<>();
+
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String value = arg.substring(separator + 1);
+            switch (arg.substring(2, separator)) {
+                case "url" -> options.setUrl(value);
+                case "rps" -> options.setRps(Double.parseDouble(value));
+                case "duration" -> options.setDuration(DurationStyle.detectAndParse(value));
+                case "warmup" -> options.setWarmup(DurationStyle.detectAndParse(value));
+                case "mix" -> options.setMix(parseMix(value));
+                case "catalog-size" -> options.setCatalogSize(Integer.parseInt(value));
+                case "max-in-flight" -> options.setMaxInFlight(Integer.parseInt(value));
+                case "timeout" -> options.setTimeout(DurationStyle.detectAndParse(value));
+                case "report-dir" -> options.setReportDir(value.isBlank() ? null : Path.of(value));
+                default -> options.getApplicationArgs().add(arg);
+            }
+        }
+        if (options.getRps() <= 0 || options.getMaxInFlight() <= 0 || options.getCatalogSize() <= 0) {
+            throw new IllegalArgumentException("rps, max-in-flight and catalog-size must be positive");
+        }
+        return options;
+    }
+
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected operation:weight in the mix but got " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weight of " + parts[0] + " must not be negative");
+            }
+            weights.put(Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), weight);
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("The mix needs at least one operation with a positive weight");
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,203 @@
+package com.glenneligio.reactive.loadtest;
+
+import com.glenneligio.reactive.Application;
+import com.glenneligio.reactive.dto.BulkWriteResultDto;
+import com.glenneligio.reactive.dto.ProductDto;
+import org.bson.types.ObjectId;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends a mix of requests to the products API at a fixed rate over HTTP and reports throughput, latency percentiles
+ * and errors per operation, see {@link LoadTestOptions} for the options.
+ * Without a url it starts the application on the "inmemory" profile on a random port, so Netty, codecs, cache
+ * and pagination are measured without a database. Requests are sent when they are due whether or not earlier
+ * ones completed, so the rate does not drop when the server slows down.
+ */
+public class LoadTestRunner {
+
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    private final LoadTestOptions options;
+    private final WebClient client;
+    private final LoadTestStats stats = new LoadTestStats();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+
+    public LoadTestRunner(LoadTestOptions options, WebClient client) {
+        this.options = options;
+        this.client = client;
+        this.operations = new Operation[options.getMix().size()];
+        this.cumulativeWeights = new int[operations.length];
+        int i = 0;
+        int total = 0;
+        for (Map.Entry<Operation, Integer> entry : options.getMix().entrySet()) {
+            total += entry.getValue();
+            operations[i] = entry.getKey();
+            cumulativeWeights[i++] = total;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        ConfigurableApplicationContext context = null;
+        String url = options.getUrl();
+        if (url == null) {
+            // Devtools reads this before the environment exists, and would otherwise run main again without the arguments
+            System.setProperty("spring.devtools.restart.enabled", "false");
+            context = new SpringApplicationBuilder(Application.class)
+                    .profiles("inmemory")
+                    .properties("spring.main.banner-mode=off",
+                            "logging.level.root=WARN",
+                            "server.port=0")
+                    .run(options.getApplicationArgs().toArray(String[]::new));
+            url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        } else if (!options.getApplicationArgs().isEmpty()) {
+            System.out.println("Ignoring " + options.getApplicationArgs() + ", the service at " + url + " is not started by the load test");
+        }
+
+        ConnectionProvider connections = ConnectionProvider.builder("loadtest")
+                .maxConnections(options.getMaxInFlight())
+                .pendingAcquireMaxCount(-1)
+                .build();
+        try {
+            WebClient client = WebClient.builder()
+                    .baseUrl(url)
+                    .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+                    .build();
+            LoadTestRunner runner = new LoadTestRunner(options, client);
+            System.out.println("Storing " + options.getCatalogSize() + " products at " + url);
+            List<String> ids = runner.seed();
+            System.out.println("Sending " + options.getMix() + " at " + options.getRps() + " req/s, warmup "
+                    + options.getWarmup() + ", measuring " + options.getDuration());
+            runner.run(ids);
+            runner.stats.print(System.out, options.getDuration(), options.getRps());
+            if (options.getReportDir() != null) {
+                runner.stats.write(options.getReportDir());
+                System.out.println("Latency histograms written to " + options.getReportDir());
+            }
+        } finally {
+            connections.dispose();
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    /**
+     * Stores the catalog through the bulk endpoint
+     *
+     * @return the ids of the stored products
+     */
+    List<String> seed() {
+        List<ProductDto> products = new ArrayList<>(options.getCatalogSize());
+        for (int i = 0; i < options.getCatalogSize(); i++) {
+            products.add(new ProductDto(new ObjectId().toHexString(), "Product" + i, i % 100, 10 + (i % 800) * 0.25));
+        }
+        long failed = Flux.fromIterable(products)
+                .buffer(SEED_BATCH_SIZE)
+                .concatMap(batch -> client.post().uri("/products/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .body(Flux.fromIterable(batch), ProductDto.class)
+                        .retrieve()
+                        .bodyToFlux(BulkWriteResultDto.class))
+                .map(BulkWriteResultDto::getFailed)
+                .reduce(0L, Long::sum)
+                .block();
+        if (failed > 0) {
+            throw new IllegalStateException(failed + " products could not be stored");
+        }
+        return products.stream().map(ProductDto::getId).toList();
+    }
+
+    /**
+     * Sends requests at the target rate for the warmup and the measurement, then waits for the outstanding ones
+     */
+    void run(List<String> ids) throws InterruptedException {
+        long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / options.getRps()));
+        long start = System.nanoTime();
+        long measureStart = start + options.getWarmup().toNanos();
+        long end = measureStart + options.getDuration().toNanos();
+        CountDownLatch done = new CountDownLatch(1);
+        long[] sent = {0};
+
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loadtest-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            long due = start + sent[0] * interval;
+            while (due <= now && due < end) {
+                send(pickOperation(), ids, due, due >= measureStart);
+                due = start + ++sent[0] * interval;
+            }
+            if (due >= end) {
+                done.countDown();
+            }
+        }, 0, 1, TimeUnit.MILLISECONDS);
+
+        done.await();
+        ticker.shutdownNow();
+        long drainDeadline = System.nanoTime() + options.getTimeout().toNanos() + TimeUnit.SECONDS.toNanos(1);
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void send(Operation operation, List<String> ids, long due, boolean measured) {
+        if (inFlight.get() >= options.getMaxInFlight()) {
+            if (measured) {
+                stats.recordSkipped();
+            }
+            return;
+        }
+        inFlight.incrementAndGet();
+        operation.send(client, ids)
+                .timeout(options.getTimeout())
+                .doFinally(signal -> inFlight.decrementAndGet())
+                .subscribe(status -> {
+                    if (!measured) {
+                        return;
+                    }
+                    if (status >= 400) {
+                        stats.recordError(operation, System.nanoTime() - due, String.valueOf(status));
+                    } else {
+                        stats.recordSuccess(operation, System.nanoTime() - due);
+                    }
+                }, error -> {
+                    if (measured) {
+                        stats.recordError(operation, System.nanoTime() - due, error.getClass().getSimpleName());
+                    }
+                });
+    }
+
+    private Operation pickOperation() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException("No operation for " + pick);
+    }
+}
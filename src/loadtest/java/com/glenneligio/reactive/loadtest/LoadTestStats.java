@@ -0,0 +1,116 @@
+package com.glenneligio.reactive.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes of the requests sent during the measurement, per {@link Operation}.
+ * Latencies are in microseconds and taken from the time a request was due, not the time it was sent,
+ * so a server that falls behind shows up in the percentiles instead of slowing down the load.
+ */
+public class LoadTestStats {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final Map<Operation, OperationStats> operations = new EnumMap<>(Operation.class);
+    private final LongAdder skipped = new LongAdder();
+
+    public LoadTestStats() {
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationStats());
+        }
+    }
+
+    public void recordSuccess(Operation operation, long latencyNanos) {
+        operations.get(operation).latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_TRACKABLE_MICROS));
+    }
+
+    /**
+     * @param error status code of the response, or the name of the exception for requests without one
+     */
+    public void recordError(Operation operation, long latencyNanos, String error) {
+        OperationStats stats = operations.get(operation);
+        stats.latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_TRACKABLE_MICROS));
+        stats.errors.computeIfAbsent(error, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Counts a request that was due while max-in-flight requests were outstanding, so it was not sent
+     */
+    public void recordSkipped() {
+        skipped.increment();
+    }
+
+    public void print(PrintStream out, Duration duration, double targetRps) {
+        double seconds = duration.toNanos() / 1e9;
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        long totalErrors = 0;
+        out.printf(Locale.ROOT, "%nTarget %.0f req/s for %s, skipped %d requests over max-in-flight%n", targetRps, duration, skipped.sum());
+        out.printf(Locale.ROOT, "%-8s %9s %9s %7s %9s %9s %9s %9s %9s  %s%n",
+                "op", "requests", "req/s", "err%", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        for (Map.Entry<Operation, OperationStats> entry : operations.entrySet()) {
+            OperationStats stats = entry.getValue();
+            Histogram latency = stats.latency.copy();
+            if (latency.getTotalCount() == 0) {
+                continue;
+            }
+            total.add(latency);
+            long errors = stats.errorCount();
+            totalErrors += errors;
+            printRow(out, entry.getKey().name().toLowerCase(Locale.ROOT), latency, errors, seconds, stats.errors.toString());
+        }
+        if (total.getTotalCount() > 0) {
+            printRow(out, "total", total, totalErrors, seconds, "");
+        }
+    }
+
+    /**
+     * Writes the percentile distribution of every operation as an .hgrm file, which HdrHistogram's plotter reads
+     */
+    public void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (Map.Entry<Operation, OperationStats> entry : operations.entrySet()) {
+            Histogram latency = entry.getValue().latency.copy();
+            if (latency.getTotalCount() == 0) {
+                continue;
+            }
+            Path file = directory.resolve(entry.getKey().name().toLowerCase(Locale.ROOT) + ".hgrm");
+            try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+                latency.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+    }
+
+    private static void printRow(PrintStream out, String name, Histogram latency, long errors, double seconds, String errorDetail) {
+        long requests = latency.getTotalCount();
+        out.printf(Locale.ROOT, "%-8s %9d %9.1f %7.2f %9.2f %9.2f %9.2f %9.2f %9.2f  %s%n",
+                name, requests, requests / seconds, 100.0 * errors / requests,
+                latency.getValueAtPercentile(50) / 1000.0,
+                latency.getValueAtPercentile(90) / 1000.0,
+                latency.getValueAtPercentile(99) / 1000.0,
+                latency.getValueAtPercentile(99.9) / 1000.0,
+                latency.getMaxValue() / 1000.0,
+                errorDetail);
+    }
+
+    private static class OperationStats {
+        private final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        private long errorCount() {
+            return errors.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.glenneligio.reactive.loadtest;
+
+import com.glenneligio.reactive.dto.ProductDto;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Requests the load test sends, each resolving to the response status once the body was read
+ */
+public enum Operation {
+
+    /** Single product by id, served from the cache when it is enabled */
+    GET {
+        @Override
+        Mono<Integer> send(WebClient client, List<String> ids) {
+            return exchange(client.get().uri("/products/{id}", randomId(ids)));
+        }
+    },
+    /** First page of the listing */
+    PAGE {
+        @Override
+        Mono<Integer> send(WebClient client, List<String> ids) {
+            return exchange(client.get().uri("/products?limit=100").accept(MediaType.APPLICATION_JSON));
+        }
+    },
+    /** Price range of random width, cheapest first */
+    RANGE {
+        @Override
+        Mono<Integer> send(WebClient client, List<String> ids) {
+            double min = ThreadLocalRandom.current().nextDouble(10, 200);
+            return exchange(client.get().uri("/products/range?min={min}&max={max}&sort=asc&limit=50", min, min + 25));
+        }
+    },
+    /** New product */
+    CREATE {
+        @Override
+        Mono<Integer> send(WebClient client, List<String> ids) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            ProductDto product = new ProductDto(null, "Load" + random.nextInt(1_000_000), random.nextInt(100), 10 + random.nextInt(20_000) / 100.0);
+            return exchange(client.post().uri("/products").bodyValue(product));
+        }
+    },
+    /** Replaces a random existing product */
+    UPDATE {
+        @Override
+        Mono<Integer> send(WebClient client, List<String> ids) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            ProductDto product = new ProductDto(null, "Updated" + random.nextInt(1_000_000), random.nextInt(100), 10 + random.nextInt(20_000) / 100.0);
+            return exchange(client.put().uri("/products/{id}", randomId(ids)).bodyValue(product));
+        }
+    },
+    /** Adds to the quantity of a random existing product */
+    PATCH {
+        @Override
+        Mono<Integer> send(WebClient client, List<String> ids) {
+            ProductPatchDto patch = new ProductPatchDto(null, null, ThreadLocalRandom.current().nextInt(100), null, null);
+            return exchange(client.patch().uri("/products/{id}", randomId(ids)).bodyValue(patch));
+        }
+    };
+
+    abstract Mono<Integer> send(WebClient client, List<String> ids);
+
+    private static Mono<Integer> exchange(WebClient.RequestHeadersSpec<?> request) {
+        return request.exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode().value()));
+    }
+
+    private static String randomId(List<String> ids) {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+}
@@ -0,0 +1,62 @@
+#!/usr/bin/env bash
+# Startup time and resident memory of the ways the application can be run. No database is needed, the MongoDB client
+# connects lazily and the features that use it in the background are switched off, also when building the AOT processed jar:
+#   mvn -Pnative -DskipTests package -Dspring-boot.aot.jvmArguments="-Dproducts.change-stream.enabled=false -Dproducts.schema.ensure-indexes=false"
+# and optionally the native executable with native:compile instead of package.
+# Usage: src/loadtest/startup-benchmark.sh [runs]
+set -euo pipefail
+
+RUNS=${1:-5}
+PORT=${PORT:-18080}
+TARGET=$(cd "$(dirname "$0")/../../target" && pwd)
+JAR=$(ls "$TARGET"/*-SNAPSHOT.jar | head -n 1)
+NATIVE=$TARGET/spring.reactive.mongodb.crud
+WORK=$TARGET/startup-benchmark
+APP_ARGS="--products.change-stream.enabled=false --products.schema.ensure-indexes=false --products.search.suggest-index-enabled=false
+    --server.port=$PORT --spring.main.banner-mode=off"
+
+rm -rf "$WORK" && mkdir -p "$WORK/exploded"
+(cd "$WORK/exploded" && jar -xf "$JAR")
+# Class data sharing only accepts jars on the class path, so the application classes are packaged too
+jar -cf "$WORK/application.jar" -C "$WORK/exploded/BOOT-INF/classes" .
+EXPLODED="-cp $WORK/application.jar:$WORK/exploded/BOOT-INF/lib/* com.glenneligio.reactive.Application"
+
+# Starts the command, waits until the actuator discovery page answers and prints milliseconds to ready and VmRSS in MB
+measure() {
+    local start pid rss
+    start=$(date +%s%N)
+    $1 $APP_ARGS > "$WORK/last.log" 2>&1 &
+    pid=$!
+    until curl -sf -o /dev/null "http://localhost:$PORT/actuator"; do
+        if ! kill -0 "$pid" 2> /dev/null; then
+            echo "failed to start, see $WORK/last.log" >&2
+            return 1
+        fi
+        sleep 0.2
+    done
+    rss=$(awk '/VmRSS/ {print $2}' "/proc/$pid/status")
+    echo "$(( ($(date +%s%N) - start) / 1000000 )) $(( rss / 1024 ))"
+    kill -TERM "$pid" && wait "$pid" || true
+}
+
+run() {
+    local name=$1 command=$2 total_ms=0 total_rss=0 ms rss
+    for _ in $(seq "$RUNS"); do
+        read -r ms rss < <(measure "$command")
+        total_ms=$((total_ms + ms))
+        total_rss=$((total_rss + rss))
+    done
+    printf '%-22s ready %6d ms   rss %5d MB\n' "$name" $((total_ms / RUNS)) $((total_rss / RUNS))
+}
+
+# The class data archive is written when the training run exits
+measure "java -XX:ArchiveClassesAtExit=$WORK/app.jsa -Dspring.aot.enabled=true $EXPLODED" > /dev/null
+
+echo "Average of $RUNS runs"
+run "fat jar" "java -jar $JAR"
+run "exploded" "java $EXPLODED"
+run "exploded + aot" "java -Dspring.aot.enabled=true $EXPLODED"
+run "exploded + aot + cds" "java -XX:SharedArchiveFile=$WORK/app.jsa -Dspring.aot.enabled=true $EXPLODED"
+if [[ -x $NATIVE ]]; then
+    run "native" "$NATIVE"
+fi
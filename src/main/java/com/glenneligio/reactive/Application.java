@@ -1,9 +1,15 @@
 package com.glenneligio.reactive;
 
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.config.ProductRuntimeHints;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
+@EnableConfigurationProperties(ProductProperties.class)
+@ImportRuntimeHints(ProductRuntimeHints.class)
 public class Application {
 
 	public static void main(String[] args) {
@@ -0,0 +1,44 @@
+package com.glenneligio.reactive.config;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class MetricsConfig {
+
+    public static final String SERVICE_METRICS = "products.service";
+    private static final String HTTP_SERVER_REQUESTS = "http.server.requests";
+
+    /**
+     * Applies the configured percentiles, histogram and SLOs to the latency of each endpoint and service method
+     */
+    @Bean
+    public MeterFilter productLatencyDistribution(ProductProperties properties) {
+        ProductProperties.Metrics metrics = properties.getMetrics();
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                String endpoint;
+                if (id.getName().equals(HTTP_SERVER_REQUESTS)) {
+                    endpoint = id.getTag("uri");
+                } else if (id.getName().startsWith(SERVICE_METRICS) && id.getType() == Meter.Type.TIMER) {
+                    endpoint = id.getTag("method");
+                } else {
+                    return config;
+                }
+                ProductProperties.Distribution distribution = metrics.getEndpoints().getOrDefault(endpoint, metrics.getDefaults());
+                return DistributionStatisticConfig.builder()
+                        .percentiles(distribution.getPercentiles().stream().mapToDouble(Double::doubleValue).toArray())
+                        .percentilesHistogram(distribution.isPercentilesHistogram())
+                        .serviceLevelObjectives(distribution.getSlo().stream().mapToDouble(Duration::toNanos).toArray())
+                        .build()
+                        .merge(config);
+            }
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package com.glenneligio.reactive.config;
+
+import com.glenneligio.reactive.repo.ProductRepository;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.repository.config.EnableReactiveMongoRepositories;
+import org.springframework.util.StringUtils;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+@EnableReactiveMongoRepositories(basePackageClasses = ProductRepository.class, reactiveMongoTemplateRef = "scanMongoTemplate")
+public class MongoClientConfig {
+
+    /**
+     * Applies the products.mongo pool, timeout, compression and write concern settings to the client Spring Boot builds
+     * from spring.data.mongodb. Reads default to the point read preference.
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer productsMongoClientSettings(ProductProperties properties) {
+        ProductProperties.Mongo mongo = properties.getMongo();
+        return builder -> {
+            ProductProperties.Pool pool = mongo.getPool();
+            builder.applyToConnectionPoolSettings(settings -> {
+                if (pool.getMaxSize() != null) {
+                    settings.maxSize(pool.getMaxSize());
+                }
+                if (pool.getMinSize() != null) {
+                    settings.minSize(pool.getMinSize());
+                }
+                if (pool.getMaxWaitTime() != null) {
+                    settings.maxWaitTime(pool.getMaxWaitTime().toMillis(), TimeUnit.MILLISECONDS);
+                }
+                if (pool.getMaxConnectionIdleTime() != null) {
+                    settings.maxConnectionIdleTime(pool.getMaxConnectionIdleTime().toMillis(), TimeUnit.MILLISECONDS);
+                }
+                if (pool.getMaxConnecting() != null) {
+                    settings.maxConnecting(pool.getMaxConnecting());
+                }
+            });
+            builder.applyToSocketSettings(settings -> {
+                if (mongo.getConnectTimeout() != null) {
+                    settings.connectTimeout((int) mongo.getConnectTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                }
+                if (mongo.getReadTimeout() != null) {
+                    settings.readTimeout((int) mongo.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                }
+            });
+            if (mongo.getServerSelectionTimeout() != null) {
+                builder.applyToClusterSettings(settings ->
+                        settings.serverSelectionTimeout(mongo.getServerSelectionTimeout().toMillis(), TimeUnit.MILLISECONDS));
+            }
+            if (!mongo.getCompressors().isEmpty()) {
+                builder.compressorList(mongo.getCompressors().stream()
+                        .map(MongoClientConfig::compressor)
+                        .toList());
+            }
+            builder.readPreference(ReadPreference.valueOf(mongo.getPointReadPreference()));
+            WriteConcern writeConcern = writeConcern(mongo.getWrites());
+            if (writeConcern != null) {
+                builder.writeConcern(writeConcern);
+            }
+        };
+    }
+
+    /**
+     * Template of everything that reads by id or must see its own writes, e.g. the change stream resume token,
+     * the name index and the price history. It keeps the client's point read preference.
+     */
+    @Bean
+    @Primary
+    public ReactiveMongoTemplate reactiveMongoTemplate(ReactiveMongoDatabaseFactory databaseFactory, MongoConverter converter) {
+        return new ReactiveMongoTemplate(databaseFactory, converter);
+    }
+
+    /**
+     * Template of the product repository, so its derived range and prefix queries read with the scan read preference.
+     * The repository reads products by id with the primary template instead.
+     */
+    @Bean
+    public ReactiveMongoTemplate scanMongoTemplate(ReactiveMongoDatabaseFactory databaseFactory, MongoConverter converter,
+                                                   ProductProperties properties) {
+        ReactiveMongoTemplate template = new ReactiveMongoTemplate(databaseFactory, converter);
+        template.setReadPreference(ReadPreference.valueOf(properties.getMongo().getScanReadPreference()));
+        return template;
+    }
+
+    /**
+     * @return the write concern of the profile, or null if the profile sets nothing. A blank w counts as not set.
+     */
+    public static WriteConcern writeConcern(ProductProperties.WriteConcernProfile profile) {
+        boolean hasW = StringUtils.hasText(profile.getW());
+        if (!hasW && profile.getJournal() == null && profile.getTimeout() == null) {
+            return null;
+        }
+        WriteConcern writeConcern = WriteConcern.ACKNOWLEDGED;
+        if (hasW) {
+            writeConcern = profile.getW().chars().allMatch(Character::isDigit)
+                    ? new WriteConcern(Integer.parseInt(profile.getW()))
+                    : new WriteConcern(profile.getW());
+        }
+        if (profile.getJournal() != null) {
+            writeConcern = writeConcern.withJournal(profile.getJournal());
+        }
+        if (profile.getTimeout() != null) {
+            writeConcern = writeConcern.withWTimeout(profile.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return writeConcern;
+    }
+
+    static MongoCompressor compressor(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "zstd" -> MongoCompressor.createZstdCompressor();
+            case "snappy" -> MongoCompressor.createSnappyCompressor();
+            case "zlib" -> MongoCompressor.createZlibCompressor();
+            default -> throw new IllegalArgumentException("Unknown MongoDB compressor " + name + ", expected one of " + List.of("zstd", "snappy", "zlib"));
+        };
+    }
+}
@@ -0,0 +1,106 @@
+package com.glenneligio.reactive.config;
+
+import com.glenneligio.reactive.entity.PricePoint;
+import com.glenneligio.reactive.entity.Product;
+import com.mongodb.MongoCommandException;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+
+/**
+ * Creates the price history time series collection and the indexes declared on the entities once the application is ready.
+ * Existing collections and indexes with the same definition are left alone, so this is safe to run on every node at every start.
+ * The time series collection has to exist before the first point is stored, an insert would create a regular collection.
+ * With soft delete enabled, a TTL index on deletedAt purges soft deleted products, a changed purge time is applied to the existing index.
+ */
+@Component
+@ConditionalOnProperty(prefix = "products.schema", name = "ensure-indexes", havingValue = "true")
+@Slf4j
+public class MongoSchemaInitializer {
+
+    private static final String PURGE_INDEX = "deletedAt_ttl";
+    /** Server error code for an index that exists with other options */
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+
+    @Autowired
+    private ReactiveMongoTemplate template;
+
+    @Autowired
+    private ProductProperties properties;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureSchema() {
+        MongoMappingContext mappingContext = (MongoMappingContext) template.getConverter().getMappingContext();
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+
+        ensureTimeSeries(PricePoint.class)
+                .thenMany(Flux.concat(ensureIndexes(resolver, Product.class), ensureIndexes(resolver, PricePoint.class), ensurePurgeIndex()))
+                .retryWhen(Retry.backoff(5, Duration.ofSeconds(1)))
+                .subscribe(name -> log.info("Ensured index {}", name),
+                        e -> log.error("Could not create collections and indexes", e));
+    }
+
+    /**
+     * Creates the collection with the time series options of its @TimeSeries annotation, unless it exists
+     */
+    private Mono<Void> ensureTimeSeries(Class<?> entityClass) {
+        return template.collectionExists(entityClass)
+                .filter(exists -> !exists)
+                .flatMap(missing -> template.createCollection(entityClass))
+                .doOnNext(collection -> log.info("Created time series collection {}", template.getCollectionName(entityClass)))
+                .then();
+    }
+
+    /**
+     * Sparse, so only soft deleted products are in it. The TTL monitor of the server removes them in the background,
+     * about once a minute, without a request having to wait for it.
+     */
+    private Mono<String> ensurePurgeIndex() {
+        ProductProperties.Delete config = properties.getDelete();
+        if (!config.isSoftDelete() || config.getPurgeAfter() == null) {
+            return Mono.empty();
+        }
+        String collection = template.getCollectionName(Product.class);
+        Index index = new Index().on("deletedAt", Sort.Direction.ASC)
+                .named(PURGE_INDEX)
+                .sparse()
+                .expire(config.getPurgeAfter());
+        Document changeExpiry = new Document("collMod", collection)
+                .append("index", new Document("name", PURGE_INDEX).append("expireAfterSeconds", config.getPurgeAfter().toSeconds()));
+        return template.indexOps(Product.class).ensureIndex(index)
+                .onErrorResume(MongoSchemaInitializer::isIndexOptionsConflict,
+                        e -> template.executeCommand(changeExpiry).thenReturn(PURGE_INDEX))
+                .map(name -> collection + "." + name);
+    }
+
+    private static boolean isIndexOptionsConflict(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoCommandException e && e.getErrorCode() == INDEX_OPTIONS_CONFLICT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Flux<String> ensureIndexes(MongoPersistentEntityIndexResolver resolver, Class<?> entityClass) {
+        ReactiveIndexOperations indexOps = template.indexOps(entityClass);
+        return Flux.fromIterable(resolver.resolveIndexFor(entityClass))
+                .concatMap(indexOps::ensureIndex)
+                .map(name -> template.getCollectionName(entityClass) + "." + name);
+    }
+}
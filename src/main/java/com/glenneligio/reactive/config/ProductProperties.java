@@ -0,0 +1,266 @@
+package com.glenneligio.reactive.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "products")
+public class ProductProperties {
+
+    private Pagination pagination = new Pagination();
+    private Bulk bulk = new Bulk();
+    private Cache cache = new Cache();
+    private Lookup lookup = new Lookup();
+    private Stats stats = new Stats();
+    private Search search = new Search();
+    private Export export = new Export();
+    private History history = new History();
+    private Delete delete = new Delete();
+    private Admission admission = new Admission();
+    private RequestLog requestLog = new RequestLog();
+    private Mongo mongo = new Mongo();
+    private ChangeStream changeStream = new ChangeStream();
+    private Stream stream = new Stream();
+    private Schema schema = new Schema();
+    private Metrics metrics = new Metrics();
+
+    @Data
+    public static class Pagination {
+        /** Page size used when the client does not send a limit */
+        private int defaultLimit = 100;
+        /** Upper bound for the limit a client may request */
+        private int maxLimit = 1000;
+    }
+
+    @Data
+    public static class Bulk {
+        /** Number of products sent to the database in one bulkWrite */
+        private int batchSize = 1000;
+        /** Number of bulkWrite batches that may be in flight at the same time */
+        private int maxInFlightBatches = 4;
+    }
+
+    @Data
+    public static class Cache {
+        /** Whether single product reads go through the in-process cache */
+        private boolean enabled = true;
+        /** Maximum number of products kept in the cache */
+        private long maximumSize = 10_000;
+        /** Time after which a cached product is reloaded from the database */
+        private Duration expireAfterWrite = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Lookup {
+        /** Maximum number of ids a client may resolve in one batch request */
+        private int maxIds = 1000;
+        /** Whether concurrent single product lookups that miss the cache are coalesced into one $in query */
+        private boolean batchingEnabled = false;
+        /** Number of ids after which a coalesced lookup is sent without waiting for the window to end */
+        private int maxBatchSize = 100;
+        /** Longest time a lookup waits for others to join its batch */
+        private Duration window = Duration.ofMillis(2);
+        /** Number of coalesced lookups that may be in flight at the same time */
+        private int maxInFlightBatches = 4;
+    }
+
+    @Data
+    public static class Stats {
+        /** Number of price buckets when the client sends no boundaries */
+        private int defaultBuckets = 10;
+        /** Whether statistics of all products with the default buckets are kept in memory between writes */
+        private boolean summaryEnabled = false;
+        /** Shortest time between two recomputations of the in-memory statistics while products keep changing */
+        private Duration summaryMinRefreshInterval = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Search {
+        /** Whether name suggestions are served from an in-memory index loaded at startup instead of a regex query */
+        private boolean suggestIndexEnabled = false;
+    }
+
+    @Data
+    public static class Export {
+        /** Number of documents the driver fetches per round trip when the client does not send a batch size, also the rows per written buffer */
+        private int defaultBatchSize = 1000;
+        /** Upper bound for the batch size a client may request */
+        private int maxBatchSize = 10_000;
+    }
+
+    @Data
+    public static class History {
+        /** Whether the price and quantity after every product write are appended to the price_history time series */
+        private boolean enabled = false;
+        /** Number of points stored with one insertMany */
+        private int maxBatchSize = 500;
+        /** Longest time a point waits for others to join its batch */
+        private Duration flushInterval = Duration.ofSeconds(1);
+        /** Number of batches that may be written at the same time, further batches are dropped */
+        private int maxInFlightBatches = 2;
+    }
+
+    @Data
+    public static class Delete {
+        /** Whether deletes only set deletedAt, which hides the products from all queries until they are purged. Their ids stay taken until then */
+        private boolean softDelete = false;
+        /** Time after which a TTL index purges soft deleted products, null keeps them */
+        private Duration purgeAfter = Duration.ofDays(30);
+        /** Maximum number of ids a client may delete in one request */
+        private int maxIds = 1000;
+    }
+
+    @Data
+    public static class Admission {
+        /** Whether requests to /products are rate limited per client and admitted under a concurrency limit */
+        private boolean enabled = false;
+        /** Concurrency limit before any latency was observed */
+        private int initialLimit = 20;
+        /** Lowest concurrency limit the latency may push it down to */
+        private int minLimit = 4;
+        /** Highest concurrency limit */
+        private int maxLimit = 200;
+        /** Factor over the baseline latency at which a request counts as slowed down by load */
+        private double latencyTolerance = 2.0;
+        /** Factor the concurrency limit is multiplied with when requests slow down or fail */
+        private double backoffRatio = 0.9;
+        /** Share of the concurrency limit that scans, exports and bulk writes may use, the rest is kept for point reads and writes */
+        private double heavyShare = 0.5;
+        /** Header with the API key clients are rate limited by, clients without it are rate limited by address */
+        private String clientKeyHeader = "X-API-Key";
+        /** Requests per second each client may send on average */
+        private double requestsPerSecond = 100;
+        /** Requests a client may send at once after being idle */
+        private int burst = 200;
+        /** Maximum number of clients whose rate limits are tracked */
+        private long maxClients = 10_000;
+    }
+
+    @Data
+    public static class RequestLog {
+        /** Whether completed requests are written to the com.glenneligio.reactive.requests logger */
+        private boolean enabled = false;
+        /** Share of successful requests that are logged, e.g. 0.01 for one in a hundred */
+        private double sampleRate = 0.01;
+        /** Sample rate per endpoint, keyed by the path pattern (e.g. /products/{id}), overriding sampleRate */
+        private Map<String, Double> endpoints = new HashMap<>();
+        /** Requests taking at least this long are always logged, like failed ones */
+        private Duration slowThreshold = Duration.ofMillis(500);
+    }
+
+    /**
+     * MongoDB client settings on top of spring.data.mongodb. Settings left null keep the driver default.
+     */
+    @Data
+    public static class Mongo {
+        private Pool pool = new Pool();
+        /** Time to establish a connection */
+        private Duration connectTimeout;
+        /** Time to wait for a reply on a connection, zero waits forever */
+        private Duration readTimeout;
+        /** Time to wait for a server that can serve the operation, e.g. a primary for writes */
+        private Duration serverSelectionTimeout;
+        /** Wire compressors offered to the server in order of preference: zstd, snappy or zlib */
+        private List<String> compressors = new ArrayList<>();
+        /** Read preference of streamed listings, range queries, searches, statistics and exports, e.g. secondaryPreferred */
+        private String scanReadPreference = "primary";
+        /** Read preference of reads by id and of the ETag tagged pages of GET /products, which must see the client's own writes */
+        private String pointReadPreference = "primary";
+        /** Write concern of single product writes */
+        private WriteConcernProfile writes = new WriteConcernProfile();
+        /** Write concern of bulk writes, falls back to the one of single writes */
+        private WriteConcernProfile bulkWrites = new WriteConcernProfile();
+    }
+
+    @Data
+    public static class Pool {
+        /** Maximum number of connections per server */
+        private Integer maxSize;
+        /** Number of connections per server kept open even when idle */
+        private Integer minSize;
+        /** Time an operation waits for a free connection before failing */
+        private Duration maxWaitTime;
+        /** Time after which an idle connection is closed */
+        private Duration maxConnectionIdleTime;
+        /** Maximum number of connections per server being established at the same time */
+        private Integer maxConnecting;
+    }
+
+    @Data
+    public static class WriteConcernProfile {
+        /** Number of members that must acknowledge a write, or majority */
+        private String w;
+        /** Whether writes must be in the on-disk journal before they are acknowledged */
+        private Boolean journal;
+        /** Time to wait for the acknowledgements before failing the write */
+        private Duration timeout;
+    }
+
+    @Data
+    public static class ChangeStream {
+        /** Whether to watch the products collection for changes made by any node. Requires a replica set, and GET /products/stream requires it */
+        private boolean enabled = false;
+        /** Name under which the last seen resume token is stored, nodes with the same name share it */
+        private String consumerName = "products-cache";
+        /** Collection in which resume tokens are stored */
+        private String resumeTokenCollection = "resume_tokens";
+        /** How often the last seen resume token is written to the database */
+        private Duration resumeTokenPersistInterval = Duration.ofSeconds(1);
+        /** First delay before reopening a failed change stream */
+        private Duration minRetryBackoff = Duration.ofSeconds(1);
+        /** Longest delay before reopening a failed change stream */
+        private Duration maxRetryBackoff = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Stream {
+        /** Number of recent change events kept for clients resuming with Last-Event-ID */
+        private int historySize = 1000;
+        /** Number of change events buffered for a client that reads slower than changes arrive */
+        private int bufferSize = 256;
+        /** What happens when a client's buffer is full */
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        /** Interval of the comments sent to keep idle connections open */
+        private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+        public enum OverflowPolicy {
+            /** Drop the oldest buffered events and keep the client connected */
+            DROP_OLDEST,
+            /** End the stream, the client can reconnect with Last-Event-ID */
+            DISCONNECT
+        }
+    }
+
+    @Data
+    public static class Schema {
+        /** Whether the indexes declared on the entities are created at startup */
+        private boolean ensureIndexes = false;
+    }
+
+    @Data
+    public static class Metrics {
+        /** Latency distribution of every endpoint and service method without an entry in endpoints */
+        private Distribution defaults = new Distribution();
+        /**
+         * Latency distribution per endpoint, keyed by the uri tag of http.server.requests (e.g. /products/{id})
+         * or the method tag of products.service (e.g. getProductById)
+         */
+        private Map<String, Distribution> endpoints = new HashMap<>();
+    }
+
+    @Data
+    public static class Distribution {
+        /** Percentiles computed in this node, e.g. 0.5, 0.95 and 0.99 */
+        private List<Double> percentiles = new ArrayList<>(List.of(0.5, 0.95, 0.99));
+        /** Whether to publish histogram buckets, needed to aggregate percentiles across nodes in Prometheus */
+        private boolean percentilesHistogram = false;
+        /** Latency targets published as histogram buckets */
+        private List<Duration> slo = new ArrayList<>();
+    }
+}
@@ -0,0 +1,57 @@
+package com.glenneligio.reactive.config;
+
+import com.glenneligio.reactive.dto.BulkWriteResultDto;
+import com.glenneligio.reactive.dto.PriceCandleDto;
+import com.glenneligio.reactive.dto.PricePointDto;
+import com.glenneligio.reactive.dto.ProductChangeEvent;
+import com.glenneligio.reactive.dto.ProductDto;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import com.glenneligio.reactive.dto.ProductStatsDto;
+import com.glenneligio.reactive.dto.QueryPlanDto;
+import com.glenneligio.reactive.entity.PricePoint;
+import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.repo.PricePointRepositoryCustomImpl;
+import com.glenneligio.reactive.repo.ProductRepositoryCustomImpl;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+import java.util.List;
+
+/**
+ * Reflection hints for the native image, on top of what Spring infers from the controllers and Spring Data from the repositories.
+ * Jackson and the Mongo converter bind the entities and DTOs by reflection, including types that only appear nested in
+ * responses, event streams or bulk results. The custom repository fragments are instantiated and initialized reflectively.
+ * Caffeine loads the cache and node class matching the features of each cache by name.
+ */
+public class ProductRuntimeHints implements RuntimeHintsRegistrar {
+
+    private static final Class<?>[] BOUND_TYPES = {
+            Product.class, PricePoint.class,
+            ProductDto.class, ProductPatchDto.class, ProductChangeEvent.class, BulkWriteResultDto.class,
+            ProductStatsDto.class, ProductStatsDto.PriceBucket.class, QueryPlanDto.class,
+            PricePointDto.class, PriceCandleDto.class
+    };
+
+    // Bounded, strong keys and values: stats, maximum size, expire after write (ProductCache)
+    // and maximum size, expire after access (rate limits of AdmissionControlFilter)
+    private static final List<String> CAFFEINE_CLASSES = List.of(
+            "com.github.benmanes.caffeine.cache.SSSMSW", "com.github.benmanes.caffeine.cache.PSWMW",
+            "com.github.benmanes.caffeine.cache.SSMSA", "com.github.benmanes.caffeine.cache.PSAMS");
+
+    private final BindingReflectionHintsRegistrar bindingRegistrar = new BindingReflectionHintsRegistrar();
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        bindingRegistrar.registerReflectionHints(hints.reflection(), BOUND_TYPES);
+        hints.reflection()
+                .registerType(ProductRepositoryCustomImpl.class, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                        MemberCategory.INVOKE_DECLARED_METHODS, MemberCategory.DECLARED_FIELDS)
+                .registerType(PricePointRepositoryCustomImpl.class, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                        MemberCategory.INVOKE_DECLARED_METHODS, MemberCategory.DECLARED_FIELDS);
+        CAFFEINE_CLASSES.forEach(name -> hints.reflection()
+                .registerType(TypeReference.of(name), MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.DECLARED_FIELDS));
+    }
+}
@@ -1,63 +1,420 @@
 package com.glenneligio.reactive.controller;
 
-import com.glenneligio.reactive.Application;
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.BulkDeleteResultDto;
+import com.glenneligio.reactive.dto.BulkWriteResultDto;
+import com.glenneligio.reactive.dto.PriceCandleDto;
+import com.glenneligio.reactive.dto.PricePointDto;
+import com.glenneligio.reactive.dto.ProductChangeEvent;
+import com.glenneligio.reactive.dto.ProductDeleteDto;
 import com.glenneligio.reactive.dto.ProductDto;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import com.glenneligio.reactive.dto.ProductStatsDto;
+import com.glenneligio.reactive.dto.QueryPlanDto;
 import com.glenneligio.reactive.entity.Product;
 import com.glenneligio.reactive.service.ProductService;
 import com.glenneligio.reactive.util.AppUtils;
+import com.glenneligio.reactive.util.ProductExportEncoder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
 @RestController
 @RequestMapping("/products")
 @Slf4j
 public class ProductController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    // Binary JSON for internal consumers, encoded by the Jackson Smile codecs registered by default.
+    // Streamed products are written back to back as self-delimiting Smile documents.
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+    public static final String SMILE_STREAM_VALUE = "application/stream+x-jackson-smile";
+    private static final List<String> CANDLE_INTERVALS = List.of("hour", "day");
+
     @Autowired
     private ProductService service;
 
-    @GetMapping
-    public Flux<ProductDto> getProducts() {
-        log.info("Getting all the products");
-       return service.getProducts().map(AppUtils::entityToDto);
+    @Autowired
+    private ProductProperties properties;
+
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
+    public Mono<ResponseEntity<List<ProductDto>>> getProducts(@RequestParam(value = "limit", required = false) Integer limit,
+                                                              @RequestParam(value = "after", required = false) String after,
+                                                              ServerWebExchange exchange) {
+        int pageSize = resolveLimit(limit);
+        log.debug("Getting {} products after cursor {}", pageSize, after);
+        // The page is identified by the URL, so the catalog version tells whether it can have changed.
+        // JSON and Smile share the tag, so caches have to key on Accept as well
+        String eTag = "\"" + service.getCatalogVersion() + "\"";
+        if (exchange.checkNotModified(eTag)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build());
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        // Fetch one extra product to find out if there is a next page without a count query
+        return service.getProducts(pageSize + 1, resolveCursor(after))
+                .map(AppUtils::entityToDto)
+                .collectList()
+                .map(products -> {
+                    if (products.size() <= pageSize) {
+                        return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).body(products);
+                    }
+                    List<ProductDto> page = products.subList(0, pageSize);
+                    String nextCursor = AppUtils.encodeCursor(page.get(pageSize - 1).getId());
+                    String nextLink = UriComponentsBuilder.fromPath(request.getPath().value())
+                            .queryParam("limit", pageSize)
+                            .queryParam("after", nextCursor)
+                            .build().toUriString();
+                    return ResponseEntity.ok()
+                            .eTag(eTag)
+                            .varyBy(HttpHeaders.ACCEPT)
+                            .header(HttpHeaders.LINK, "<" + nextLink + ">; rel=\"next\"")
+                            .header(NEXT_CURSOR_HEADER, nextCursor)
+                            .body(page);
+                });
+    }
+
+    @GetMapping(produces = {MediaType.APPLICATION_NDJSON_VALUE, SMILE_STREAM_VALUE})
+    public Flux<ProductDto> streamProducts(@RequestParam(value = "after", required = false) String after) {
+        log.debug("Streaming all the products after cursor {}", after);
+        return service.streamProducts(resolveCursor(after))
+                .map(AppUtils::entityToDto);
+    }
+
+    /**
+     * Change events come from the change stream, so without it there is nothing to stream
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ProductChangeEvent>> streamProductChanges(@RequestParam(value = "minPrice", required = false) Double minPrice,
+                                                                          @RequestParam(value = "maxPrice", required = false) Double maxPrice,
+                                                                          @RequestParam(value = "ids", required = false) Set<String> ids,
+                                                                          @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        if (!properties.getChangeStream().isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Change events need products.change-stream.enabled");
+        }
+        log.debug("Streaming product changes after event {}", lastEventId);
+        Flux<ServerSentEvent<ProductChangeEvent>> changes = service.streamProductChanges(minPrice, maxPrice, ids, lastEventId)
+                .map(event -> ServerSentEvent.builder(event)
+                        .id(event.getResumeToken())
+                        .event(event.getOperation())
+                        .build());
+        Flux<ServerSentEvent<ProductChangeEvent>> heartbeats = Flux.interval(properties.getStream().getHeartbeatInterval())
+                .map(tick -> ServerSentEvent.<ProductChangeEvent>builder().comment("heartbeat").build());
+        return Flux.merge(changes, heartbeats.onBackpressureDrop());
     }
 
+    /**
+     * Tagged with the product version, so If-None-Match is answered with 304 without a body.
+     * A cached product is checked without reading the database. The tag is the same for JSON and Smile, hence Vary: Accept.
+     */
     @GetMapping("/{id}")
-    public Mono<ProductDto> getProductById(@PathVariable String id) {
-        log.info("Getting product with id {}", id);
+    public Mono<ResponseEntity<ProductDto>> getProductById(@PathVariable String id) {
+        log.debug("Getting product with id {}", id);
         return service.getProductById(id)
-                .map(AppUtils::entityToDto);
+                .map(product -> {
+                    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+                    if (product.getVersion() != null) {
+                        response.eTag("\"" + product.getVersion() + "\"").varyBy(HttpHeaders.ACCEPT);
+                    }
+                    return response.body(AppUtils.entityToDto(product));
+                });
+    }
+
+    /**
+     * Streams the price and quantity of the product after each write from (inclusive) to (exclusive), oldest first
+     */
+    @GetMapping("/{id}/history")
+    public Flux<PricePointDto> getPriceHistory(@PathVariable String id,
+                                               @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                                               @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        log.debug("Getting price history of product {} from {} to {}", id, from, to);
+        validateTimeRange(from, to);
+        return service.getPriceHistory(id, from, to)
+                .map(AppUtils::pricePointToDto);
+    }
+
+    /**
+     * Open, high, low and close price of the product per hour or day, for charts over long time ranges
+     */
+    @GetMapping("/{id}/history/ohlc")
+    public Flux<PriceCandleDto> getPriceCandles(@PathVariable String id,
+                                                @RequestParam(value = "interval", defaultValue = "hour") String interval,
+                                                @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                                                @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        log.debug("Getting {} price candles of product {} from {} to {}", interval, id, from, to);
+        String unit = interval.toLowerCase(Locale.ROOT);
+        if (!CANDLE_INTERVALS.contains(unit)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "interval must be one of " + CANDLE_INTERVALS);
+        }
+        validateTimeRange(from, to);
+        return service.getPriceCandles(id, from, to, unit);
     }
 
     @GetMapping("/range")
     public Flux<ProductDto> getProductByPriceRange(@RequestParam("min") double min,
-                                                   @RequestParam("max") double max){
-        log.info("Getting all products with price between {} and {}", min, max);
-        return service.getProductByPriceRange(min, max)
+                                                   @RequestParam("max") double max,
+                                                   @RequestParam(value = "sort", required = false) String sort,
+                                                   @RequestParam(value = "limit", required = false) Integer limit){
+        log.debug("Getting all products with price between {} and {}", min, max);
+        return service.getProductByPriceRange(min, max, resolveDirection(sort), limit == null ? null : resolveLimit(limit))
                 .map(AppUtils::entityToDto);
     }
 
+    @GetMapping("/range/explain")
+    public Mono<QueryPlanDto> explainProductByPriceRange(@RequestParam("min") double min,
+                                                         @RequestParam("max") double max,
+                                                         @RequestParam(value = "sort", required = false) String sort,
+                                                         @RequestParam(value = "limit", required = false) Integer limit) {
+        log.debug("Explaining query for products with price between {} and {}", min, max);
+        return service.explainProductByPriceRange(min, max, resolveDirection(sort), limit == null ? null : resolveLimit(limit));
+    }
+
+    @GetMapping("/export")
+    public Mono<Void> exportProducts(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                     @RequestParam(value = "fields", required = false) List<String> fields,
+                                     @RequestParam(value = "batchSize", required = false) Integer batchSize,
+                                     @RequestParam(value = "gzip", defaultValue = "false") boolean gzip,
+                                     ServerHttpResponse response) {
+        log.debug("Exporting fields {} of all products as {}", fields, format);
+        ProductExportEncoder.Format exportFormat = resolveFormat(format);
+        List<String> exportFields = resolveFields(fields);
+        int exportBatchSize = resolveBatchSize(batchSize);
+
+        HttpHeaders headers = response.getHeaders();
+        headers.setContentType(exportFormat == ProductExportEncoder.Format.CSV
+                ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                : MediaType.APPLICATION_NDJSON);
+        headers.setContentDisposition(ContentDisposition.attachment()
+                .filename("products." + exportFormat.name().toLowerCase(Locale.ROOT))
+                .build());
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        ProductExportEncoder encoder = new ProductExportEncoder(exportFormat, exportFields, gzip, response.bufferFactory());
+        return response.writeWith(encoder.encode(service.exportProducts(exportFields, exportBatchSize)));
+    }
+
+    @GetMapping("/search")
+    public Flux<ProductDto> searchProducts(@RequestParam("q") String q,
+                                           @RequestParam(value = "limit", required = false) Integer limit) {
+        log.debug("Searching products matching {}", q);
+        if (q.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "q must not be blank");
+        }
+        return service.searchProducts(q, resolveLimit(limit))
+                .map(AppUtils::entityToDto);
+    }
+
+    @GetMapping("/search/suggest")
+    public Flux<ProductDto> suggestProducts(@RequestParam("prefix") String prefix,
+                                            @RequestParam(value = "limit", required = false) Integer limit) {
+        log.debug("Suggesting products starting with {}", prefix);
+        if (prefix.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "prefix must not be blank");
+        }
+        return service.suggestProducts(prefix.strip(), resolveLimit(limit))
+                .map(AppUtils::entityToDto);
+    }
+
+    @GetMapping("/stats")
+    public Mono<ProductStatsDto> getProductStats(@RequestParam(value = "min", required = false) Double min,
+                                                 @RequestParam(value = "max", required = false) Double max,
+                                                 @RequestParam(value = "boundaries", required = false) List<Double> boundaries,
+                                                 @RequestParam(value = "buckets", required = false) Integer buckets) {
+        log.debug("Getting statistics of products with price between {} and {}", min, max);
+        if (boundaries != null) {
+            if (boundaries.size() < 2) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "boundaries needs at least two values");
+            }
+            for (int i = 1; i < boundaries.size(); i++) {
+                if (boundaries.get(i) <= boundaries.get(i - 1)) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "boundaries must be in ascending order");
+                }
+            }
+        }
+        if (buckets != null && buckets < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "buckets must be greater than 0");
+        }
+        return service.getProductStats(min, max, boundaries, buckets);
+    }
+
     @PostMapping
     public Mono<ProductDto> saveProduct(@RequestBody ProductDto dto) {
-        log.info("Saving product {}", dto);
+        log.debug("Saving product {}", dto);
         Mono<Product> savedProduct = service.saveProduct(AppUtils.dtoToEntity(dto));
         return savedProduct.map(AppUtils::entityToDto);
     }
 
+    @PostMapping("/_mget")
+    public Flux<ProductDto> getProductsByIds(@RequestBody List<String> ids) {
+        log.debug("Getting {} products by id", ids.size());
+        if (ids.size() > properties.getLookup().getMaxIds()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At most " + properties.getLookup().getMaxIds() + " ids can be fetched at once");
+        }
+        return service.getProductsByIds(ids)
+                .map(AppUtils::entityToDto);
+    }
+
+    @PostMapping(value = "/bulk",
+            consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE, SMILE_STREAM_VALUE, SMILE_VALUE},
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, SMILE_STREAM_VALUE})
+    public Flux<BulkWriteResultDto> bulkSaveProducts(@RequestBody Flux<ProductDto> dtos) {
+        log.debug("Bulk saving products");
+        return service.bulkSaveProducts(dtos.map(AppUtils::dtoToEntity));
+    }
+
     @PutMapping("/{id}")
     public Mono<ProductDto> updateProduct(@RequestBody ProductDto dto,
                                           @PathVariable String id) {
-        log.info("Updating product with id {} using data {}", id, dto);
+        log.debug("Updating product with id {} using data {}", id, dto);
         return service.updateProduct(AppUtils.dtoToEntity(dto), id)
                 .map(AppUtils::entityToDto);
     }
 
+    @PatchMapping("/{id}")
+    public Mono<ProductDto> patchProduct(@RequestBody ProductPatchDto patch,
+                                         @PathVariable String id) {
+        log.debug("Patching product with id {} using data {}", id, patch);
+        if (patch.getQty() != null && patch.getQtyDelta() != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "qty and qtyDelta cannot be combined");
+        }
+        if (patch.getName() == null && patch.getQty() == null && patch.getQtyDelta() == null && patch.getPrice() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Patch does not change any field");
+        }
+        return service.patchProduct(patch, id)
+                .map(AppUtils::entityToDto);
+    }
+
     @DeleteMapping("/{id}")
     public Mono<Void> deleteProduct(@PathVariable("id") String id) {
-        log.info("Deleting product with id {}", id);
+        log.debug("Deleting product with id {}", id);
         return service.deleteProduct(id);
     }
+
+    /**
+     * Deletes the products with the given ids, or all products with a price in the range, in a single round trip
+     */
+    @PostMapping("/_delete")
+    public Mono<BulkDeleteResultDto> deleteProducts(@RequestBody ProductDeleteDto selection) {
+        log.debug("Deleting products matching {}", selection);
+        boolean byIds = selection.getIds() != null && !selection.getIds().isEmpty();
+        boolean byPrice = selection.getMinPrice() != null || selection.getMaxPrice() != null;
+        if (byIds == byPrice) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Either ids or a price range must be given");
+        }
+        if (byIds && selection.getIds().size() > properties.getDelete().getMaxIds()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At most " + properties.getDelete().getMaxIds() + " ids can be deleted at once");
+        }
+        if (selection.getMinPrice() != null && selection.getMaxPrice() != null && selection.getMinPrice() > selection.getMaxPrice()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "minPrice must not be greater than maxPrice");
+        }
+        return service.deleteProducts(byIds ? selection.getIds() : null, selection.getMinPrice(), selection.getMaxPrice());
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<String> handleVersionConflict(OptimisticLockingFailureException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
+
+    /**
+     * With soft delete, creating a product with the id of an existing one, or of a soft deleted one that is not purged yet
+     */
+    @ExceptionHandler(DuplicateKeyException.class)
+    public ResponseEntity<String> handleDuplicateId(DuplicateKeyException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body("A product with this id already exists");
+    }
+
+    private int resolveLimit(Integer limit) {
+        if (limit == null) {
+            return properties.getPagination().getDefaultLimit();
+        }
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be greater than 0");
+        }
+        return Math.min(limit, properties.getPagination().getMaxLimit());
+    }
+
+    private ProductExportEncoder.Format resolveFormat(String format) {
+        try {
+            return ProductExportEncoder.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "format must be ndjson or csv");
+        }
+    }
+
+    private List<String> resolveFields(List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return ProductExportEncoder.FIELDS;
+        }
+        for (String field : fields) {
+            if (!ProductExportEncoder.FIELDS.contains(field)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "fields must be some of " + String.join(",", ProductExportEncoder.FIELDS));
+            }
+        }
+        return fields.stream().distinct().toList();
+    }
+
+    private int resolveBatchSize(Integer batchSize) {
+        ProductProperties.Export export = properties.getExport();
+        if (batchSize == null) {
+            return export.getDefaultBatchSize();
+        }
+        if (batchSize < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "batchSize must be greater than 0");
+        }
+        return Math.min(batchSize, export.getMaxBatchSize());
+    }
+
+    private Sort.Direction resolveDirection(String sort) {
+        if (sort == null) {
+            return null;
+        }
+        try {
+            return Sort.Direction.fromString(sort);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort must be asc or desc");
+        }
+    }
+
+    private String resolveCursor(String after) {
+        if (after == null) {
+            return null;
+        }
+        try {
+            return AppUtils.decodeCursor(after);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor " + after);
+        }
+    }
+
+    private void validateTimeRange(Instant from, Instant to) {
+        if (from != null && to != null && !from.isBefore(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+    }
 }
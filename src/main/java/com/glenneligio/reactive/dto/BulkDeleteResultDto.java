@@ -0,0 +1,13 @@
+package com.glenneligio.reactive.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkDeleteResultDto {
+    private long deleted;
+    private boolean soft;
+}
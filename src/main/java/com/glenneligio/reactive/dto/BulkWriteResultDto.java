@@ -0,0 +1,17 @@
+package com.glenneligio.reactive.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkWriteResultDto {
+    private long batch;
+    private int received;
+    private int inserted;
+    private int upserted;
+    private int modified;
+    private int failed;
+}
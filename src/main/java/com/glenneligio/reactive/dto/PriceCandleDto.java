@@ -0,0 +1,24 @@
+package com.glenneligio.reactive.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Price points of a product within one hour or day: first, highest, lowest and last price,
+ * the quantity after the last write and the number of writes
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PriceCandleDto {
+    private Instant start;
+    private double open;
+    private double high;
+    private double low;
+    private double close;
+    private int qty;
+    private long count;
+}
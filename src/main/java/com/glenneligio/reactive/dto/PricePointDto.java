@@ -0,0 +1,17 @@
+package com.glenneligio.reactive.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PricePointDto {
+    private Instant timestamp;
+    private double price;
+    private int qty;
+    private Long version;
+}
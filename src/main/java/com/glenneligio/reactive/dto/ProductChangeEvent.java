@@ -0,0 +1,22 @@
+package com.glenneligio.reactive.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A change to the products collection as seen by a MongoDB change stream.
+ * product is the document after the change and is null for deletes.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductChangeEvent {
+    private String resumeToken;
+    private String operation;
+    private String productId;
+    private ProductDto product;
+    private Instant clusterTime;
+}
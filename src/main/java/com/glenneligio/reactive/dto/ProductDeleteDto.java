@@ -0,0 +1,19 @@
+package com.glenneligio.reactive.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Products to delete at once, either by id or by a price range. A missing price bound leaves that side of the range open.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductDeleteDto {
+    private List<String> ids;
+    private Double minPrice;
+    private Double maxPrice;
+}
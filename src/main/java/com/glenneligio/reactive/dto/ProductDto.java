@@ -12,4 +12,12 @@ public class ProductDto {
     private String name;
     private int qty;
     private double price;
+    private Long version;
+
+    public ProductDto(String id, String name, int qty, double price) {
+        this.id = id;
+        this.name = name;
+        this.qty = qty;
+        this.price = price;
+    }
 }
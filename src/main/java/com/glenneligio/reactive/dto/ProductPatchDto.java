@@ -0,0 +1,20 @@
+package com.glenneligio.reactive.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Partial update of a product. Only non-null fields are changed, qtyDelta is added to the current qty.
+ * If version is set, the update only applies when the stored product still has that version.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductPatchDto {
+    private String name;
+    private Integer qty;
+    private Integer qtyDelta;
+    private Double price;
+    private Long version;
+}
@@ -0,0 +1,38 @@
+package com.glenneligio.reactive.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Inventory and price statistics of the products in a price range.
+ * Prices are null when no product matched.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductStatsDto {
+    private long count;
+    private long totalQty;
+    private double stockValue;
+    private Double minPrice;
+    private Double maxPrice;
+    private Double avgPrice;
+    private List<PriceBucket> buckets;
+
+    /**
+     * Products with a price from min (inclusive) up to max (exclusive, except for the last automatic bucket).
+     * Products outside the requested boundaries end up in a bucket without bounds.
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class PriceBucket {
+        private Double min;
+        private Double max;
+        private long count;
+        private long totalQty;
+    }
+}
@@ -0,0 +1,20 @@
+package com.glenneligio.reactive.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Summary of the plan MongoDB chose for a query, taken from its explain output
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class QueryPlanDto {
+    private boolean indexUsed;
+    private String indexName;
+    private String winningStage;
+    private long keysExamined;
+    private long docsExamined;
+    private long returned;
+}
@@ -0,0 +1,39 @@
+package com.glenneligio.reactive.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.TimeSeries;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
+
+import java.time.Instant;
+
+/**
+ * Price and quantity of a product right after a write, stored in a time series collection.
+ * Points are bucketed by product id, and hours match how rarely the price of one product changes.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@TimeSeries(collection = "price_history", timeField = "timestamp", metaField = "productId", granularity = Granularity.HOURS)
+// Serves the history of one product in a time range
+@CompoundIndex(name = "productId_timestamp", def = "{'productId': 1, 'timestamp': 1}")
+public class PricePoint {
+    @Id
+    private String id;
+    private Instant timestamp;
+    private String productId;
+    private double price;
+    private int qty;
+    private Long version;
+
+    public PricePoint(Instant timestamp, Product product) {
+        this.timestamp = timestamp;
+        this.productId = product.getId();
+        this.price = product.getPrice();
+        this.qty = product.getQty();
+        this.version = product.getVersion();
+    }
+}
@@ -4,18 +4,45 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.TextIndexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
+
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 @Document(collection = "products")
+// Serves price range filters on its prefix and, with _id as tie-breaker, sorted and paginated range scans in both directions
+@CompoundIndex(name = "price_id", def = "{'price': 1, '_id': 1}")
 public class Product {
     @Id
     private String id;
+    @TextIndexed
     private String name;
     private int qty;
     private double price;
+    @Version
+    private Long version;
+    // Set by soft deletes, products with a deletedAt are left out of all queries until the purge index removes them
+    private Instant deletedAt;
+
+    public Product(String id, String name, int qty, double price, Long version) {
+        this.id = id;
+        this.name = name;
+        this.qty = qty;
+        this.price = price;
+        this.version = version;
+    }
+
+    public Product(String id, String name, int qty, double price) {
+        this.id = id;
+        this.name = name;
+        this.qty = qty;
+        this.price = price;
+    }
 
     public Product(String name, int qty, double price) {
         this.name = name;
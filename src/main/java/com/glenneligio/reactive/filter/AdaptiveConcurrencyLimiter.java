@@ -0,0 +1,86 @@
+package com.glenneligio.reactive.filter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that follows the latency of the requests it admits. The limit grows by about one for every limit
+ * requests that complete close to the baseline latency while it is in use, and shrinks by the backoff ratio when a request
+ * takes longer than tolerance times the baseline or fails. The baseline follows faster latencies quickly and slower ones
+ * slowly, so a sustained change of the workload moves it while a queue building up in the database does not.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile double limit;
+    private double baselineNanos;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoffRatio) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Admits a request if fewer requests than the given share of the limit are in flight
+     */
+    public boolean tryAcquire(double share) {
+        int allowed = Math.max(1, (int) (limit * share));
+        while (true) {
+            int current = inflight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request and adjusts the limit to its latency
+     *
+     * @param dropped whether the request failed in a way that hints at overload, its latency is then ignored
+     */
+    public void release(long latencyNanos, boolean dropped) {
+        int inflightBefore = inflight.getAndDecrement();
+        synchronized (this) {
+            if (dropped) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                return;
+            }
+            if (baselineNanos == 0) {
+                baselineNanos = latencyNanos;
+            } else {
+                baselineNanos += (latencyNanos - baselineNanos) * (latencyNanos < baselineNanos ? 0.5 : 0.01);
+            }
+            if (latencyNanos > baselineNanos * tolerance) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (inflightBefore * 2 >= limit) {
+                // Only grow while the limit is actually being used
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request without adjusting the limit, for requests whose latency says nothing about load,
+     * like streams that last as long as the client keeps reading
+     */
+    public void release() {
+        inflight.decrementAndGet();
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+}
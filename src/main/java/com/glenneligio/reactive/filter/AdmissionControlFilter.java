@@ -0,0 +1,151 @@
+package com.glenneligio.reactive.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.glenneligio.reactive.config.ProductProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Protects the database from traffic spikes on /products. Every client first needs a token from its own bucket,
+ * otherwise it gets 429. Admitted requests then need a slot under an {@link AdaptiveConcurrencyLimiter}, otherwise they get 503.
+ * Scans, exports, multi-gets, price histories, bulk writes and bulk deletes may only use a share of the limit,
+ * so under overload they are shed before point reads and writes.
+ * Both rejections carry Retry-After. The change event stream is exempt, its connections are long-lived and mostly idle.
+ */
+@Component
+@ConditionalOnProperty(prefix = "products.admission", name = "enabled", havingValue = "true")
+@Slf4j
+public class AdmissionControlFilter implements WebFilter, Ordered {
+
+    private static final PathPattern PRODUCTS = PathPatternParser.defaultInstance.parse("/products/**");
+    private static final PathPattern EXEMPT = PathPatternParser.defaultInstance.parse("/products/stream");
+    private static final Map<HttpMethod, List<PathPattern>> HEAVY = Map.of(
+            HttpMethod.GET, patterns("/products", "/products/range", "/products/range/explain", "/products/export",
+                    "/products/stats", "/products/search", "/products/{id}/history", "/products/{id}/history/ohlc"),
+            HttpMethod.POST, patterns("/products/bulk", "/products/_delete", "/products/_mget"));
+
+    private final ProductProperties.Admission config;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Cache<String, TokenBucket> buckets;
+    private final MeterRegistry meterRegistry;
+
+    public AdmissionControlFilter(ProductProperties properties, MeterRegistry meterRegistry) {
+        this.config = properties.getAdmission();
+        this.limiter = new AdaptiveConcurrencyLimiter(config.getInitialLimit(), config.getMinLimit(), config.getMaxLimit(),
+                config.getLatencyTolerance(), config.getBackoffRatio());
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(config.getMaxClients())
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("products.admission.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current concurrency limit for requests to /products")
+                .register(meterRegistry);
+        Gauge.builder("products.admission.inflight", limiter, AdaptiveConcurrencyLimiter::getInflight)
+                .description("Admitted requests to /products in flight")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE + 100;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        PathContainer path = request.getPath().pathWithinApplication();
+        if (!PRODUCTS.matches(path) || EXEMPT.matches(path)) {
+            return chain.filter(exchange);
+        }
+
+        long now = System.nanoTime();
+        long waitNanos = buckets.get(clientKey(request), key -> new TokenBucket(config.getBurst(), config.getRequestsPerSecond(), now))
+                .tryConsume(now);
+        if (waitNanos > 0) {
+            long retryAfterSeconds = (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+            return reject(exchange, HttpStatus.TOO_MANY_REQUESTS, retryAfterSeconds, "rate_limited");
+        }
+
+        boolean heavy = isHeavy(request.getMethod(), path);
+        if (!limiter.tryAcquire(heavy ? config.getHeavyShare() : 1)) {
+            return reject(exchange, HttpStatus.SERVICE_UNAVAILABLE, 1, heavy ? "overloaded_heavy" : "overloaded");
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        return chain.filter(exchange)
+                .doOnSuccess(done -> release(released, heavy, now, false))
+                .doOnError(e -> release(released, heavy, now, isOverload(e)))
+                .doOnCancel(() -> release(released, heavy, now, false));
+    }
+
+    private void release(AtomicBoolean released, boolean heavy, long startedAt, boolean dropped) {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        // Scans and exports last as long as their result, their latency does not tell how loaded the database is
+        if (heavy) {
+            limiter.release();
+        } else {
+            limiter.release(System.nanoTime() - startedAt, dropped);
+        }
+    }
+
+    private Mono<Void> reject(ServerWebExchange exchange, HttpStatus status, long retryAfterSeconds, String reason) {
+        meterRegistry.counter("products.admission.rejected", "reason", reason).increment();
+        log.debug("Rejecting {} {} with {}: {}", exchange.getRequest().getMethod(), exchange.getRequest().getPath(), status, reason);
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(status);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return response.setComplete();
+    }
+
+    private String clientKey(ServerHttpRequest request) {
+        String apiKey = request.getHeaders().getFirst(config.getClientKeyHeader());
+        if (apiKey != null && !apiKey.isBlank()) {
+            return "key:" + apiKey;
+        }
+        InetSocketAddress address = request.getRemoteAddress();
+        return address == null ? "anonymous" : "address:" + address.getHostString();
+    }
+
+    static boolean isHeavy(HttpMethod method, PathContainer path) {
+        return HEAVY.getOrDefault(method, List.of()).stream().anyMatch(pattern -> pattern.matches(path));
+    }
+
+    private static List<PathPattern> patterns(String... patterns) {
+        return Arrays.stream(patterns).map(PathPatternParser.defaultInstance::parse).toList();
+    }
+
+    /**
+     * Client errors say nothing about load, anything else failing may be the database giving up
+     */
+    private static boolean isOverload(Throwable e) {
+        return !(e instanceof ResponseStatusException status && status.getStatusCode().is4xxClientError());
+    }
+}
@@ -0,0 +1,134 @@
+package com.glenneligio.reactive.filter;
+
+import com.glenneligio.reactive.config.ProductProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.slf4j.event.Level;
+import org.slf4j.spi.LoggingEventBuilder;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Gives every request an id and writes one sampled, key-value line per completed request to the
+ * com.glenneligio.reactive.requests logger, so controllers and services do not need to log on the event loop.
+ * The id is taken from X-Request-Id or generated, sent back in the response and put into the Reactor context,
+ * from where {@link #withMdc} puts it into the MDC of log statements inside the pipeline.
+ * Failed and slow requests are always logged, the others with the sample rate of their endpoint.
+ */
+@Component
+public class RequestLogFilter implements WebFilter, Ordered {
+
+    public static final String REQUEST_ID = "requestId";
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+    private static final Logger requestLog = LoggerFactory.getLogger("com.glenneligio.reactive.requests");
+    private static final Pattern VALID_REQUEST_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    private final ProductProperties.RequestLog config;
+
+    public RequestLogFilter(ProductProperties properties) {
+        this.config = properties.getRequestLog();
+    }
+
+    /**
+     * Runs the log statement with the request id of the context in the MDC
+     */
+    public static void withMdc(ContextView context, Runnable logStatement) {
+        String requestId = context.getOrDefault(REQUEST_ID, null);
+        if (requestId == null) {
+            logStatement.run();
+            return;
+        }
+        MDC.put(REQUEST_ID, requestId);
+        try {
+            logStatement.run();
+        } finally {
+            MDC.remove(REQUEST_ID);
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        // Before admission control, so rejected requests get an id and are logged too
+        return Ordered.HIGHEST_PRECEDENCE + 50;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String requestId = exchange.getRequest().getHeaders().getFirst(REQUEST_ID_HEADER);
+        if (requestId == null || !VALID_REQUEST_ID.matcher(requestId).matches()) {
+            requestId = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        }
+        exchange.getResponse().getHeaders().set(REQUEST_ID_HEADER, requestId);
+        if (!config.isEnabled()) {
+            return chain.filter(exchange).contextWrite(Context.of(REQUEST_ID, requestId));
+        }
+        String id = requestId;
+        long start = System.nanoTime();
+        return chain.filter(exchange)
+                .doOnSuccess(done -> log(exchange, id, start, "success", null))
+                .doOnError(error -> log(exchange, id, start, "error", error))
+                .doOnCancel(() -> log(exchange, id, start, "cancelled", null))
+                .contextWrite(Context.of(REQUEST_ID, requestId));
+    }
+
+    private void log(ServerWebExchange exchange, String requestId, long start, String outcome, Throwable error) {
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int status = status(exchange, error);
+        Object pattern = exchange.getAttributeOrDefault(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE,
+                exchange.getAttribute(RouterFunctions.MATCHING_PATTERN_ATTRIBUTE));
+        String uri = pattern == null ? "UNKNOWN" : pattern.toString();
+        boolean failed = error != null || status >= 500;
+        boolean slow = durationMs >= config.getSlowThreshold().toMillis();
+        if (!failed && !slow && !sampled(uri)) {
+            return;
+        }
+        Level level = failed || slow ? Level.WARN : Level.INFO;
+        if (!requestLog.isEnabledForLevel(level)) {
+            return;
+        }
+        LoggingEventBuilder event = requestLog.atLevel(level)
+                .addKeyValue(REQUEST_ID, requestId)
+                .addKeyValue("method", exchange.getRequest().getMethod())
+                .addKeyValue("uri", uri)
+                .addKeyValue("path", exchange.getRequest().getPath().value())
+                .addKeyValue("status", status)
+                .addKeyValue("durationMs", durationMs)
+                .addKeyValue("outcome", outcome);
+        if (error != null) {
+            event.addKeyValue("error", error.getClass().getSimpleName());
+        }
+        event.log("request");
+    }
+
+    private boolean sampled(String uri) {
+        double rate = config.getEndpoints().getOrDefault(uri, config.getSampleRate());
+        return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    private static int status(ServerWebExchange exchange, Throwable error) {
+        if (error instanceof ResponseStatusException e) {
+            return e.getStatusCode().value();
+        }
+        if (error != null) {
+            return 500;
+        }
+        HttpStatusCode status = exchange.getResponse().getStatusCode();
+        return status == null ? 200 : status.value();
+    }
+}
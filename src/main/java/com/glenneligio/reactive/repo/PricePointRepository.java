@@ -0,0 +1,16 @@
+package com.glenneligio.reactive.repo;
+
+import com.glenneligio.reactive.entity.PricePoint;
+import org.springframework.data.domain.Range;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+
+@Repository
+public interface PricePointRepository extends ReactiveMongoRepository<PricePoint, String>, PricePointRepositoryCustom {
+
+    Flux<PricePoint> findByProductIdAndTimestampBetween(String productId, Range<Instant> range, Sort sort);
+}
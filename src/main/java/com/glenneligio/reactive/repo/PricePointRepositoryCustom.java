@@ -0,0 +1,21 @@
+package com.glenneligio.reactive.repo;
+
+import com.glenneligio.reactive.dto.PriceCandleDto;
+import org.springframework.data.domain.Range;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+
+/**
+ * Operations of {@link PricePointRepository} that are implemented with aggregations
+ */
+public interface PricePointRepositoryCustom {
+
+    /**
+     * Downsamples the price points of the product in the time range into one candle per hour or day, oldest first.
+     * Runs as a single aggregation with $dateTrunc, which needs MongoDB 5.0 like time series collections do.
+     *
+     * @param unit "hour" or "day", truncated in UTC
+     */
+    Flux<PriceCandleDto> findCandles(String productId, Range<Instant> range, String unit);
+}
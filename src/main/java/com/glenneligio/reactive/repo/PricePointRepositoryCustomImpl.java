@@ -0,0 +1,73 @@
+package com.glenneligio.reactive.repo;
+
+import com.glenneligio.reactive.dto.PriceCandleDto;
+import com.glenneligio.reactive.entity.PricePoint;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Range;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+import java.util.Date;
+
+public class PricePointRepositoryCustomImpl implements PricePointRepositoryCustom {
+
+    @Autowired
+    private ReactiveMongoTemplate template;
+
+    @Override
+    public Flux<PriceCandleDto> findCandles(String productId, Range<Instant> range, String unit) {
+        // Spring Data has no $dateTrunc yet, so the group stage is written as a document
+        Document group = new Document("_id", new Document("$dateTrunc", new Document("date", "$timestamp").append("unit", unit)))
+                .append("open", new Document("$first", "$price"))
+                .append("high", new Document("$max", "$price"))
+                .append("low", new Document("$min", "$price"))
+                .append("close", new Document("$last", "$price"))
+                .append("qty", new Document("$last", "$qty"))
+                .append("count", new Document("$sum", 1));
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(timeCriteria(Criteria.where("productId").is(productId), range)),
+                Aggregation.sort(Sort.Direction.ASC, "timestamp"),
+                context -> new Document("$group", group),
+                Aggregation.sort(Sort.Direction.ASC, "_id"));
+        return template.aggregate(aggregation, template.getCollectionName(PricePoint.class), Document.class)
+                .map(PricePointRepositoryCustomImpl::toCandle);
+    }
+
+    private static Criteria timeCriteria(Criteria criteria, Range<Instant> range) {
+        if (!range.getLowerBound().isBounded() && !range.getUpperBound().isBounded()) {
+            return criteria;
+        }
+        Criteria timestamp = criteria.and("timestamp");
+        range.getLowerBound().getValue().ifPresent(from -> {
+            if (range.getLowerBound().isInclusive()) {
+                timestamp.gte(Date.from(from));
+            } else {
+                timestamp.gt(Date.from(from));
+            }
+        });
+        range.getUpperBound().getValue().ifPresent(to -> {
+            if (range.getUpperBound().isInclusive()) {
+                timestamp.lte(Date.from(to));
+            } else {
+                timestamp.lt(Date.from(to));
+            }
+        });
+        return timestamp;
+    }
+
+    private static PriceCandleDto toCandle(Document candle) {
+        return new PriceCandleDto(candle.getDate("_id").toInstant(),
+                toDouble(candle.get("open")), toDouble(candle.get("high")), toDouble(candle.get("low")), toDouble(candle.get("close")),
+                candle.get("qty") instanceof Number qty ? qty.intValue() : 0,
+                candle.get("count") instanceof Number count ? count.longValue() : 0);
+    }
+
+    private static double toDouble(Object value) {
+        return value instanceof Number number ? number.doubleValue() : 0;
+    }
+}
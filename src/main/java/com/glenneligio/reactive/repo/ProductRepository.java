@@ -1,12 +1,45 @@
 package com.glenneligio.reactive.repo;
 
 import com.glenneligio.reactive.entity.Product;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Range;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Repository
-public interface ProductRepository extends ReactiveMongoRepository<Product, String> {
-    Flux<Product> findByPriceBetween(Range<Double> priceRange);
+public interface ProductRepository extends ReactiveMongoRepository<Product, String>, ProductRepositoryCustom {
+    // Declared by both parents, implemented by ProductRepositoryCustomImpl
+
+    @Override
+    Mono<Product> findById(String id);
+
+    @Override
+    Mono<Boolean> existsById(String id);
+
+    @Override
+    Flux<Product> findAllById(Iterable<String> ids);
+
+    @Override
+    Flux<Product> findAll();
+
+    @Override
+    Flux<Product> findAll(Sort sort);
+
+    @Override
+    Mono<Long> count();
+
+    // Derived queries leave out soft deleted products
+
+    Flux<Product> findByPriceBetweenAndDeletedAtIsNull(Range<Double> priceRange);
+
+    Flux<Product> findByPriceBetweenAndDeletedAtIsNull(Range<Double> priceRange, Sort sort);
+
+    Flux<Product> findByPriceBetweenAndDeletedAtIsNull(Range<Double> priceRange, Pageable pageable);
+
+    Flux<Product> findByIdGreaterThanAndDeletedAtIsNull(String id, Sort sort);
+
+    Flux<Product> findByNameStartingWithIgnoreCaseAndDeletedAtIsNull(String prefix, Pageable pageable);
 }
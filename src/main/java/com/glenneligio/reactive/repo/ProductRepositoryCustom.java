@@ -0,0 +1,128 @@
+package com.glenneligio.reactive.repo;
+
+import com.glenneligio.reactive.dto.BulkWriteResultDto;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import com.glenneligio.reactive.dto.ProductStatsDto;
+import com.glenneligio.reactive.dto.QueryPlanDto;
+import com.glenneligio.reactive.entity.Product;
+import org.bson.Document;
+import org.springframework.data.domain.Range;
+import org.springframework.data.domain.Sort;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Operations of {@link ProductRepository} that are implemented with {@link org.springframework.data.mongodb.core.ReactiveMongoTemplate}
+ * instead of derived queries
+ */
+public interface ProductRepositoryCustom {
+
+    // Reads by id replace the ones of the base repository, so they use the point read preference
+    // instead of the scan read preference of the repository template.
+    // These and all other reads leave out soft deleted products.
+
+    Mono<Product> findById(String id);
+
+    Mono<Boolean> existsById(String id);
+
+    Flux<Product> findAllById(Iterable<String> ids);
+
+    Flux<Product> findAll();
+
+    Flux<Product> findAll(Sort sort);
+
+    Mono<Long> count();
+
+    /**
+     * Reads up to limit products ordered by id, after the given id or from the first if it is null.
+     * Uses the point read preference, since pages are tagged with the catalog version of this node,
+     * which a lagging secondary may not have caught up with.
+     */
+    Flux<Product> findPage(String afterId, int limit);
+
+    /**
+     * Writes all products in one unordered bulkWrite. Products without an id are given a new id, which is set on them,
+     * and inserted at version 0.
+     * Products with an id get their name, qty and price set and their version incremented, like {@link #replaceProduct},
+     * and are inserted at version 1 if they do not exist. If such a product has a version, it is only written when the stored
+     * version is the same. Soft deleted products are never written, their ids stay taken until the purge removes them.
+     * Products that were not written, because of a stale version, a soft deleted product or a write error, are counted as failed
+     * and do not fail the returned Mono.
+     */
+    Mono<BulkWriteResultDto> bulkUpsert(List<Product> products);
+
+    /**
+     * Replaces name, qty and price of the product in a single findAndModify and increments its version.
+     * If the product has a version, the replace only applies when the stored version is the same.
+     *
+     * @return the product before and after the replace, or empty if no product with that id (and version) exists
+     */
+    Mono<Revision> replaceProduct(String id, Product product);
+
+    /**
+     * Applies the non-null fields of the patch in a single findAndModify and increments the version.
+     *
+     * @return the product before and after the patch, or empty if no product with that id (and version) exists
+     */
+    Mono<Revision> patchProduct(String id, ProductPatchDto patch);
+
+    /**
+     * A product as it was before an update and as the update left it
+     */
+    record Revision(Product previous, Product current) {
+
+        public boolean isPriceOrQtyChanged() {
+            return previous.getQty() != current.getQty() || Double.compare(previous.getPrice(), current.getPrice()) != 0;
+        }
+    }
+
+    /**
+     * Removes the products with the given ids, or with a price in the range if ids is null, with one deleteMany.
+     * Soft deleted products that match are removed too.
+     *
+     * @return the number of removed products
+     */
+    Mono<Long> deleteProducts(Collection<String> ids, Range<Double> priceRange);
+
+    /**
+     * Sets deletedAt on the products that are not deleted yet and have one of the given ids, or a price in the range
+     * if ids is null, with one updateMany. The ids cannot be used for new products until the purge removes them.
+     *
+     * @return the number of soft deleted products
+     */
+    Mono<Long> softDeleteProducts(Collection<String> ids, Range<Double> priceRange, Instant deletedAt);
+
+    /**
+     * Explains the query run by the price range search with the same sort and limit
+     *
+     * @param direction sort direction on price, or null for no sort
+     * @param limit     maximum number of products, or null for no limit
+     */
+    Mono<QueryPlanDto> explainPriceRange(double min, double max, Sort.Direction direction, Integer limit);
+
+    /**
+     * Computes count, stock and price statistics of the products in the price range with one aggregation,
+     * along with a price histogram
+     *
+     * @param priceRange range the price must be in, like findByPriceBetween, or null for all products
+     * @param boundaries ascending bucket boundaries, or null to let the database pick boundaries for the given number of buckets
+     * @param buckets    number of buckets when no boundaries are given
+     */
+    Mono<ProductStatsDto> priceStats(Range<Double> priceRange, List<Double> boundaries, int buckets);
+
+    /**
+     * Streams the products whose name matches the text search, most relevant first. Needs the text index on name.
+     */
+    Flux<Product> searchByName(String text, int limit);
+
+    /**
+     * Streams the raw documents of all products ordered by _id, with only the given fields, fetching batchSize documents per round trip
+     *
+     * @param fields entity property names, "id" is read from _id
+     */
+    Flux<Document> exportProducts(List<String> fields, int batchSize);
+}
@@ -0,0 +1,408 @@
+package com.glenneligio.reactive.repo;
+
+import com.glenneligio.reactive.config.MongoClientConfig;
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.BulkWriteResultDto;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import com.glenneligio.reactive.dto.ProductStatsDto;
+import com.glenneligio.reactive.dto.QueryPlanDto;
+import com.glenneligio.reactive.entity.Product;
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.Range;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+public class ProductRepositoryCustomImpl implements ProductRepositoryCustom {
+
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+    private static final String OTHER_BUCKET = "other";
+    // The update is applied to the returned previous document in memory, which is what findAndModify stored atomically
+    private static final FindAndModifyOptions RETURN_OLD = FindAndModifyOptions.options().returnNew(false);
+    private static final String DELETED_AT = "deletedAt";
+
+    @Autowired
+    private ReactiveMongoTemplate template;
+
+    @Autowired
+    @Qualifier("scanMongoTemplate")
+    private ReactiveMongoTemplate scanTemplate;
+
+    @Autowired
+    private ProductProperties properties;
+
+    private ReadPreference scanReadPreference;
+    private WriteConcern bulkWriteConcern;
+
+    @PostConstruct
+    void init() {
+        ProductProperties.Mongo mongo = properties.getMongo();
+        scanReadPreference = ReadPreference.valueOf(mongo.getScanReadPreference());
+        bulkWriteConcern = MongoClientConfig.writeConcern(mongo.getBulkWrites());
+    }
+
+    @Override
+    public Mono<Product> findById(String id) {
+        return template.findOne(Query.query(Criteria.where("id").is(id).and(DELETED_AT).is(null)), Product.class);
+    }
+
+    @Override
+    public Mono<Boolean> existsById(String id) {
+        return template.exists(Query.query(Criteria.where("id").is(id).and(DELETED_AT).is(null)), Product.class);
+    }
+
+    @Override
+    public Flux<Product> findAllById(Iterable<String> ids) {
+        List<String> idList = new ArrayList<>();
+        ids.forEach(idList::add);
+        return template.find(Query.query(Criteria.where("id").in(idList).and(DELETED_AT).is(null)), Product.class);
+    }
+
+    @Override
+    public Flux<Product> findAll() {
+        return scanTemplate.find(Query.query(notDeleted()), Product.class);
+    }
+
+    @Override
+    public Flux<Product> findAll(Sort sort) {
+        return scanTemplate.find(Query.query(notDeleted()).with(sort), Product.class);
+    }
+
+    @Override
+    public Flux<Product> findPage(String afterId, int limit) {
+        Criteria criteria = afterId == null ? notDeleted() : notDeleted().and("id").gt(afterId);
+        return template.find(Query.query(criteria).with(Sort.by("id")).limit(limit), Product.class);
+    }
+
+    @Override
+    public Mono<Long> count() {
+        return scanTemplate.count(Query.query(notDeleted()), Product.class);
+    }
+
+    @Override
+    public Mono<Long> deleteProducts(Collection<String> ids, Range<Double> priceRange) {
+        return template.remove(Query.query(selection(ids, priceRange)), Product.class)
+                .map(DeleteResult::getDeletedCount);
+    }
+
+    @Override
+    public Mono<Long> softDeleteProducts(Collection<String> ids, Range<Double> priceRange, Instant deletedAt) {
+        Query query = Query.query(selection(ids, priceRange).and(DELETED_AT).is(null));
+        return template.updateMulti(query, new Update().set(DELETED_AT, deletedAt).inc("version", 1), Product.class)
+                .map(UpdateResult::getModifiedCount);
+    }
+
+    @Override
+    public Mono<BulkWriteResultDto> bulkUpsert(List<Product> products) {
+        List<WriteModel<Document>> writes = new ArrayList<>(products.size());
+        for (Product product : products) {
+            boolean insert = product.getId() == null;
+            if (insert) {
+                product.setId(new ObjectId().toHexString());
+            }
+            Document document = new Document();
+            template.getConverter().write(product, document);
+            if (insert) {
+                document.put("version", 0L);
+                writes.add(new InsertOneModel<>(document));
+                continue;
+            }
+            // A soft deleted product does not match, so the upsert fails on its _id instead of bringing it back
+            Bson filter = Filters.and(Filters.eq("_id", document.get("_id")), Filters.eq(DELETED_AT, null));
+            // Without a version the product is upserted, with one a missing or newer product must not be overwritten
+            writes.add(new UpdateOneModel<>(product.getVersion() == null ? filter : Filters.and(filter, Filters.eq("version", product.getVersion())),
+                    Updates.combine(
+                            Updates.set("name", product.getName()),
+                            Updates.set("qty", product.getQty()),
+                            Updates.set("price", product.getPrice()),
+                            Updates.inc("version", 1L)),
+                    new UpdateOptions().upsert(product.getVersion() == null)));
+        }
+        return template.getCollection(template.getCollectionName(Product.class))
+                .map(collection -> bulkWriteConcern == null ? collection : collection.withWriteConcern(bulkWriteConcern))
+                .flatMap(collection -> Mono.from(collection.bulkWrite(writes, UNORDERED)))
+                .map(result -> toResult(products.size(), result))
+                .onErrorResume(MongoBulkWriteException.class, e -> Mono.just(toResult(products.size(), e.getWriteResult())));
+    }
+
+    @Override
+    public Mono<Revision> replaceProduct(String id, Product product) {
+        Update update = new Update()
+                .set("name", product.getName())
+                .set("qty", product.getQty())
+                .set("price", product.getPrice())
+                .inc("version", 1);
+        return template.findAndModify(byIdAndVersion(id, product.getVersion()), update, RETURN_OLD, Product.class)
+                .map(previous -> new Revision(previous,
+                        new Product(id, product.getName(), product.getQty(), product.getPrice(), nextVersion(previous))));
+    }
+
+    @Override
+    public Mono<Revision> patchProduct(String id, ProductPatchDto patch) {
+        Update update = new Update().inc("version", 1);
+        if (patch.getName() != null) {
+            update.set("name", patch.getName());
+        }
+        if (patch.getQty() != null) {
+            update.set("qty", patch.getQty());
+        }
+        if (patch.getQtyDelta() != null) {
+            update.inc("qty", patch.getQtyDelta());
+        }
+        if (patch.getPrice() != null) {
+            update.set("price", patch.getPrice());
+        }
+        return template.findAndModify(byIdAndVersion(id, patch.getVersion()), update, RETURN_OLD, Product.class)
+                .map(previous -> new Revision(previous, patched(previous, patch)));
+    }
+
+    private static Product patched(Product previous, ProductPatchDto patch) {
+        Product patched = new Product(previous.getId(), previous.getName(), previous.getQty(), previous.getPrice(), nextVersion(previous));
+        if (patch.getName() != null) {
+            patched.setName(patch.getName());
+        }
+        if (patch.getQty() != null) {
+            patched.setQty(patch.getQty());
+        }
+        if (patch.getQtyDelta() != null) {
+            patched.setQty(patched.getQty() + patch.getQtyDelta());
+        }
+        if (patch.getPrice() != null) {
+            patched.setPrice(patch.getPrice());
+        }
+        return patched;
+    }
+
+    /**
+     * $inc on a missing version field starts at 1
+     */
+    private static long nextVersion(Product previous) {
+        return previous.getVersion() == null ? 1L : previous.getVersion() + 1;
+    }
+
+    @Override
+    public Mono<QueryPlanDto> explainPriceRange(double min, double max, Sort.Direction direction, Integer limit) {
+        Bson filter = Filters.and(Filters.gte("price", min), Filters.lte("price", max), Filters.eq(DELETED_AT, null));
+        return template.getCollection(template.getCollectionName(Product.class))
+                .map(collection -> collection.withReadPreference(scanReadPreference))
+                .flatMap(collection -> {
+                    FindPublisher<Document> find = collection.find(filter);
+                    if (direction != null) {
+                        find = find.sort(direction.isAscending()
+                                ? Sorts.ascending("price", "_id")
+                                : Sorts.descending("price", "_id"));
+                    }
+                    if (limit != null) {
+                        find = find.limit(limit);
+                    }
+                    return Mono.from(find.explain(ExplainVerbosity.EXECUTION_STATS));
+                })
+                .map(ProductRepositoryCustomImpl::toQueryPlan);
+    }
+
+    @Override
+    public Mono<ProductStatsDto> priceStats(Range<Double> priceRange, List<Double> boundaries, int buckets) {
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(priceRange != null && (priceRange.getLowerBound().isBounded() || priceRange.getUpperBound().isBounded())
+                ? priceCriteria(priceRange).and(DELETED_AT).is(null)
+                : notDeleted()));
+        GroupOperation summary = Aggregation.group()
+                .count().as("count")
+                .sum("qty").as("totalQty")
+                .sum(ArithmeticOperators.valueOf("price").multiplyBy("qty")).as("stockValue")
+                .min("price").as("minPrice")
+                .max("price").as("maxPrice")
+                .avg("price").as("avgPrice");
+        AggregationOperation histogram = boundaries == null
+                ? Aggregation.bucketAuto("price", buckets)
+                        .andOutputCount().as("count")
+                        .andOutput("qty").sum().as("totalQty")
+                : Aggregation.bucket("price")
+                        .withBoundaries(boundaries.toArray())
+                        .withDefaultBucket(OTHER_BUCKET)
+                        .andOutputCount().as("count")
+                        .andOutput("qty").sum().as("totalQty");
+        stages.add(Aggregation.facet(summary).as("summary").and(histogram).as("buckets"));
+        return scanTemplate.aggregate(Aggregation.newAggregation(stages), scanTemplate.getCollectionName(Product.class), Document.class)
+                .next()
+                .map(result -> toStats(result, boundaries));
+    }
+
+    @Override
+    public Flux<Product> searchByName(String text, int limit) {
+        Query query = TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(text))
+                .sortByScore()
+                .limit(limit)
+                .addCriteria(notDeleted());
+        return scanTemplate.find(query, Product.class);
+    }
+
+    @Override
+    public Flux<Document> exportProducts(List<String> fields, int batchSize) {
+        Bson projection = Projections.include(fields.stream()
+                .map(field -> "id".equals(field) ? "_id" : field)
+                .toList());
+        if (!fields.contains("id")) {
+            projection = Projections.fields(projection, Projections.excludeId());
+        }
+        Bson fieldsToRead = projection;
+        return template.getCollection(template.getCollectionName(Product.class))
+                .map(collection -> collection.withReadPreference(scanReadPreference))
+                .flatMapMany(collection -> collection.find(Filters.eq(DELETED_AT, null))
+                        .projection(fieldsToRead)
+                        .sort(Sorts.ascending("_id"))
+                        .batchSize(batchSize));
+    }
+
+    private static Criteria notDeleted() {
+        return Criteria.where(DELETED_AT).is(null);
+    }
+
+    private static Criteria selection(Collection<String> ids, Range<Double> priceRange) {
+        return ids != null ? Criteria.where("id").in(ids) : priceCriteria(priceRange);
+    }
+
+    private static Criteria priceCriteria(Range<Double> priceRange) {
+        Criteria criteria = Criteria.where("price");
+        priceRange.getLowerBound().getValue().ifPresent(min -> {
+            if (priceRange.getLowerBound().isInclusive()) {
+                criteria.gte(min);
+            } else {
+                criteria.gt(min);
+            }
+        });
+        priceRange.getUpperBound().getValue().ifPresent(max -> {
+            if (priceRange.getUpperBound().isInclusive()) {
+                criteria.lte(max);
+            } else {
+                criteria.lt(max);
+            }
+        });
+        return criteria;
+    }
+
+    private static ProductStatsDto toStats(Document result, List<Double> boundaries) {
+        List<Document> summaries = result.getList("summary", Document.class, List.of());
+        Document summary = summaries.isEmpty() ? new Document() : summaries.get(0);
+        List<ProductStatsDto.PriceBucket> buckets = result.getList("buckets", Document.class, List.of()).stream()
+                .map(bucket -> toBucket(bucket, boundaries))
+                .toList();
+        return new ProductStatsDto(toLong(summary.get("count")), toLong(summary.get("totalQty")),
+                toDouble(summary.get("stockValue")), toNullableDouble(summary.get("minPrice")),
+                toNullableDouble(summary.get("maxPrice")), toNullableDouble(summary.get("avgPrice")), buckets);
+    }
+
+    /**
+     * $bucket only reports the lower boundary of each bucket, $bucketAuto reports both
+     */
+    private static ProductStatsDto.PriceBucket toBucket(Document bucket, List<Double> boundaries) {
+        Double min = null;
+        Double max = null;
+        if (bucket.get("_id") instanceof Document bounds) {
+            min = toNullableDouble(bounds.get("min"));
+            max = toNullableDouble(bounds.get("max"));
+        } else if (bucket.get("_id") instanceof Number lower) {
+            min = lower.doubleValue();
+            int index = boundaries.indexOf(min);
+            max = index >= 0 && index + 1 < boundaries.size() ? boundaries.get(index + 1) : null;
+        }
+        return new ProductStatsDto.PriceBucket(min, max, toLong(bucket.get("count")), toLong(bucket.get("totalQty")));
+    }
+
+    private static QueryPlanDto toQueryPlan(Document explain) {
+        Document queryPlanner = explain.get("queryPlanner", new Document());
+        Document winningPlan = queryPlanner.get("winningPlan", new Document());
+        // Plans run by the slot based engine nest the classic plan tree under queryPlan
+        Document plan = winningPlan.get("queryPlan", winningPlan);
+        String indexName = findIndexName(plan);
+        Document stats = explain.get("executionStats", new Document());
+        return new QueryPlanDto(indexName != null, indexName, plan.getString("stage"),
+                toLong(stats.get("totalKeysExamined")), toLong(stats.get("totalDocsExamined")), toLong(stats.get("nReturned")));
+    }
+
+    private static String findIndexName(Document stage) {
+        if ("IXSCAN".equals(stage.getString("stage"))) {
+            return stage.getString("indexName");
+        }
+        List<Document> inputs = new ArrayList<>();
+        if (stage.get("inputStage") instanceof Document input) {
+            inputs.add(input);
+        }
+        if (stage.get("inputStages") instanceof List<?> stages) {
+            stages.stream().filter(Document.class::isInstance).map(Document.class::cast).forEach(inputs::add);
+        }
+        return inputs.stream()
+                .map(ProductRepositoryCustomImpl::findIndexName)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+
+    private static double toDouble(Object value) {
+        return value instanceof Number number ? number.doubleValue() : 0;
+    }
+
+    private static Double toNullableDouble(Object value) {
+        return value instanceof Number number ? number.doubleValue() : null;
+    }
+
+    private static Query byIdAndVersion(String id, Long version) {
+        Criteria criteria = Criteria.where("id").is(id).and(DELETED_AT).is(null);
+        if (version != null) {
+            criteria.and("version").is(version);
+        }
+        return Query.query(criteria);
+    }
+
+    /**
+     * Updates with a stale version match nothing and report no error, so every product that was not written counts as failed
+     */
+    private static BulkWriteResultDto toResult(int received, BulkWriteResult result) {
+        int written = result.getInsertedCount() + result.getUpserts().size() + result.getMatchedCount();
+        return new BulkWriteResultDto(0, received, result.getInsertedCount(), result.getUpserts().size(),
+                result.getModifiedCount(), received - written);
+    }
+}
@@ -0,0 +1,80 @@
+package com.glenneligio.reactive.service;
+
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.entity.PricePoint;
+import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.repo.PricePointRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Appends the price and quantity of written products to the price history, off the request path.
+ * Callers only record products whose price or quantity a write changed, or that it created.
+ * Points are collected into batches of up to maxBatchSize, or whatever arrived within the flush interval,
+ * and each batch is stored with one insertMany. Batches that arrive while maxInFlightBatches are being written,
+ * and batches that fail, are dropped and counted, since the history must never slow down or fail a product write.
+ */
+@Component
+@Slf4j
+public class PriceHistoryRecorder {
+
+    private final PricePointRepository repository;
+    private final boolean enabled;
+    private final Counter overflowed;
+    private final Counter failed;
+    private final Disposable batches;
+    private volatile FluxSink<PricePoint> points;
+
+    public PriceHistoryRecorder(ProductProperties properties, PricePointRepository repository, MeterRegistry meterRegistry) {
+        ProductProperties.History config = properties.getHistory();
+        this.repository = repository;
+        this.enabled = config.isEnabled();
+        this.overflowed = meterRegistry.counter("products.history.dropped", "reason", "overflow");
+        this.failed = meterRegistry.counter("products.history.dropped", "reason", "error");
+        this.batches = !enabled ? Disposables.disposed() : Flux.<PricePoint>create(sink -> this.points = sink)
+                .bufferTimeout(config.getMaxBatchSize(), config.getFlushInterval())
+                .onBackpressureDrop(batch -> overflowed.increment(batch.size()))
+                .flatMap(this::write, config.getMaxInFlightBatches())
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void close() {
+        batches.dispose();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void record(Product product) {
+        if (enabled && product.getId() != null) {
+            points.next(new PricePoint(Instant.now(), product));
+        }
+    }
+
+    public void recordAll(List<Product> products) {
+        products.forEach(this::record);
+    }
+
+    private Mono<Void> write(List<PricePoint> batch) {
+        return repository.insert(batch)
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Could not store {} price history points", batch.size(), e);
+                    failed.increment(batch.size());
+                    return Mono.empty();
+                });
+    }
+}
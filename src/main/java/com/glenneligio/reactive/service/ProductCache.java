@@ -0,0 +1,87 @@
+package com.glenneligio.reactive.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.ProductChangeEvent;
+import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.util.AppUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache of products by id. Concurrent misses for the same id share a single load,
+ * and empty loads are not cached. Hit, miss and eviction counts are published as the "products" cache metrics.
+ * Changes made by other nodes arrive through the {@link ProductChangeFeed}.
+ */
+@Component
+public class ProductCache {
+
+    public static final String CACHE_NAME = "products";
+
+    private final boolean enabled;
+    private final AsyncCache<String, Product> cache;
+    private final Disposable changes;
+
+    public ProductCache(ProductProperties properties, MeterRegistry meterRegistry, ProductChangeFeed changeFeed) {
+        ProductProperties.Cache config = properties.getCache();
+        this.enabled = config.isEnabled();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaximumSize())
+                .expireAfterWrite(config.getExpireAfterWrite())
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        this.changes = changeFeed.events().subscribe(this::apply);
+    }
+
+    @PreDestroy
+    public void close() {
+        changes.dispose();
+    }
+
+    public Mono<Product> get(String id, Function<String, Mono<Product>> loader) {
+        if (!enabled) {
+            return loader.apply(id);
+        }
+        // A cancelled subscriber must not cancel the load other subscribers may be waiting on
+        return Mono.fromFuture(() -> cache.get(id, (key, executor) -> loader.apply(key).toFuture()), true);
+    }
+
+    public void invalidate(String id) {
+        if (id != null) {
+            cache.synchronous().invalidate(id);
+        }
+    }
+
+    public void invalidateAll(Iterable<String> ids) {
+        cache.synchronous().invalidateAll(ids);
+    }
+
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    /**
+     * Keeps the cache coherent with writes made by other nodes. Products that are cached get the changed document,
+     * deleted products are dropped, and events without a product id drop the whole cache.
+     */
+    private void apply(ProductChangeEvent event) {
+        String id = event.getProductId();
+        if (id == null) {
+            invalidateAll();
+        } else if (event.getProduct() == null) {
+            invalidate(id);
+        } else {
+            Product product = AppUtils.dtoToEntity(event.getProduct());
+            cache.asMap().computeIfPresent(id, (key, current) -> CompletableFuture.completedFuture(product));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.glenneligio.reactive.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of the whole catalog as seen by this node, changed by every local write and every event of the {@link ProductChangeFeed}.
+ * The version starts with a random epoch, so versions from before a restart or from another node never match.
+ * Writes made by other nodes only change it while the change stream is enabled.
+ */
+@Component
+public class ProductCatalogVersion {
+
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final AtomicLong counter = new AtomicLong();
+    private final Disposable changes;
+
+    public ProductCatalogVersion(ProductChangeFeed changeFeed) {
+        this.changes = changeFeed.events().subscribe(event -> increment());
+    }
+
+    @PreDestroy
+    public void close() {
+        changes.dispose();
+    }
+
+    public void increment() {
+        counter.incrementAndGet();
+    }
+
+    public String get() {
+        return epoch + "-" + counter.get();
+    }
+}
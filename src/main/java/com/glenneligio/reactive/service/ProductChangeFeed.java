@@ -0,0 +1,73 @@
+package com.glenneligio.reactive.service;
+
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.ProductChangeEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hub that multicasts product change events to everything in this node that keeps local product state
+ * or streams changes to clients. Events are published by {@link ProductChangeStreamListener} when change streams are enabled,
+ * so all subscribers share a single change stream.
+ * <p>
+ * The most recent events are kept, so a subscriber that knows the resume token of the last event it saw
+ * can continue right after it without missing anything.
+ */
+@Component
+public class ProductChangeFeed {
+
+    private record Entry(long sequence, ProductChangeEvent event) {
+    }
+
+    private final Sinks.Many<Entry> sink;
+    private final Map<String, Long> sequenceByToken;
+    private long sequence;
+
+    public ProductChangeFeed(ProductProperties properties) {
+        int historySize = properties.getStream().getHistorySize();
+        this.sink = Sinks.many().replay().limit(historySize);
+        this.sequenceByToken = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > historySize;
+            }
+        };
+    }
+
+    public synchronized void publish(ProductChangeEvent event) {
+        sequence++;
+        if (event.getResumeToken() != null) {
+            sequenceByToken.put(event.getResumeToken(), sequence);
+        }
+        sink.tryEmitNext(new Entry(sequence, event));
+    }
+
+    /**
+     * Events published from now on
+     */
+    public Flux<ProductChangeEvent> events() {
+        return eventsAfter(null);
+    }
+
+    /**
+     * Events published after the event with the given resume token. If that event is no longer kept,
+     * or no token is given, only events published from now on.
+     */
+    public Flux<ProductChangeEvent> eventsAfter(String resumeToken) {
+        return Flux.defer(() -> {
+            long start = startSequence(resumeToken);
+            return sink.asFlux()
+                    .filter(entry -> entry.sequence() > start)
+                    .map(Entry::event);
+        });
+    }
+
+    private synchronized long startSequence(String resumeToken) {
+        Long tokenSequence = resumeToken == null ? null : sequenceByToken.get(resumeToken);
+        return tokenSequence == null ? sequence : tokenSequence;
+    }
+}
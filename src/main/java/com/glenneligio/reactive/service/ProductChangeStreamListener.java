@@ -0,0 +1,206 @@
+package com.glenneligio.reactive.service;
+
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.ProductChangeEvent;
+import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.util.AppUtils;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Watches the products collection with a MongoDB change stream and publishes every change to the {@link ProductChangeFeed}.
+ * The last seen resume token is stored in the database, so after a restart or a failure the stream resumes where it left off.
+ */
+@Component
+@ConditionalOnProperty(prefix = "products.change-stream", name = "enabled", havingValue = "true")
+@Slf4j
+public class ProductChangeStreamListener {
+
+    /** Server error code for a resume token that is no longer in the oplog */
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+
+    @Autowired
+    private ReactiveMongoTemplate template;
+
+    @Autowired
+    private ProductChangeFeed feed;
+
+    @Autowired
+    private ProductProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicReference<BsonValue> lastToken = new AtomicReference<>();
+    private volatile BsonValue persistedToken;
+    private final Disposable.Composite subscriptions = Disposables.composite();
+    private Timer lagTimer;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        ProductProperties.ChangeStream config = properties.getChangeStream();
+        lagTimer = Timer.builder("products.change.stream.lag")
+                .description("Time between a product change being committed and this node receiving it")
+                .register(meterRegistry);
+        log.info("Starting change stream on products as {}", config.getConsumerName());
+
+        subscriptions.add(loadResumeToken()
+                .doOnNext(lastToken::set)
+                .thenMany(Flux.defer(this::watch))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, config.getMinRetryBackoff())
+                        .maxBackoff(config.getMaxRetryBackoff())
+                        .doBeforeRetry(signal -> onStreamError(signal.failure())))
+                .subscribe(feed::publish));
+        subscriptions.add(Flux.interval(config.getResumeTokenPersistInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> persistResumeToken()
+                        .onErrorResume(e -> {
+                            log.warn("Could not store change stream resume token", e);
+                            return Mono.empty();
+                        }))
+                .subscribe());
+    }
+
+    @PreDestroy
+    public void stop() {
+        subscriptions.dispose();
+        try {
+            persistResumeToken().block(Duration.ofSeconds(5));
+        } catch (RuntimeException e) {
+            log.warn("Could not store change stream resume token on shutdown", e);
+        }
+    }
+
+    private Flux<ProductChangeEvent> watch() {
+        ChangeStreamOptions.ChangeStreamOptionsBuilder options = ChangeStreamOptions.builder()
+                .returnFullDocumentOnUpdate();
+        BsonValue token = lastToken.get();
+        if (token != null) {
+            options.resumeAfter(token);
+        }
+        Flux<ProductChangeEvent> changes = template
+                .changeStream(template.getCollectionName(Product.class), options.build(), Product.class)
+                .map(this::toChangeEvent);
+        // Without a resume token changes may have been missed, so local state has to be dropped first
+        return token == null
+                ? Flux.concat(Mono.just(new ProductChangeEvent(null, "invalidate", null, null, Instant.now())), changes)
+                : changes;
+    }
+
+    private ProductChangeEvent toChangeEvent(ChangeStreamEvent<Product> event) {
+        BsonValue token = event.getResumeToken();
+        lastToken.set(token);
+        Instant clusterTime = event.getTimestamp();
+        if (clusterTime != null) {
+            lagTimer.record(Duration.between(clusterTime, Instant.now()));
+        }
+        String operation = event.getOperationType() == null ? "unknown" : event.getOperationType().getValue();
+        Counter.builder("products.change.stream.events")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .increment();
+
+        ChangeStreamDocument<Document> raw = event.getRaw();
+        String productId = raw == null || raw.getDocumentKey() == null ? null : idOf(raw.getDocumentKey().get("_id"));
+        Product product = event.getBody();
+        // A soft delete is an update to the document, subscribers see it as the delete it is
+        if (product != null && product.getDeletedAt() != null) {
+            operation = "delete";
+            product = null;
+        }
+        return new ProductChangeEvent(tokenToString(token), operation, productId,
+                product == null ? null : AppUtils.entityToDto(product), clusterTime);
+    }
+
+    private void onStreamError(Throwable error) {
+        if (isHistoryLost(error)) {
+            log.warn("Change stream resume token is no longer in the oplog, restarting from now", error);
+            lastToken.set(null);
+        } else {
+            log.warn("Change stream on products failed, reopening it", error);
+        }
+    }
+
+    private Mono<BsonValue> loadResumeToken() {
+        String consumerName = properties.getChangeStream().getConsumerName();
+        return template.getCollection(properties.getChangeStream().getResumeTokenCollection())
+                .flatMap(collection -> Mono.from(collection.find(Filters.eq("_id", consumerName)).first()))
+                .map(document -> tokenFromString(document.getString("token")));
+    }
+
+    private Mono<Void> persistResumeToken() {
+        BsonValue token = lastToken.get();
+        if (token == null || token.equals(persistedToken)) {
+            return Mono.empty();
+        }
+        String consumerName = properties.getChangeStream().getConsumerName();
+        Document document = new Document("_id", consumerName)
+                .append("token", tokenToString(token))
+                .append("updatedAt", new Date());
+        return template.getCollection(properties.getChangeStream().getResumeTokenCollection())
+                .flatMap(collection -> Mono.from(collection.replaceOne(Filters.eq("_id", consumerName), document, UPSERT)))
+                .doOnSuccess(result -> persistedToken = token)
+                .then();
+    }
+
+    private static boolean isHistoryLost(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoCommandException e && e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String idOf(BsonValue id) {
+        if (id == null) {
+            return null;
+        }
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id.isString() ? id.asString().getValue() : id.toString();
+    }
+
+    static String tokenToString(BsonValue token) {
+        if (token == null) {
+            return null;
+        }
+        BsonDocument document = token.asDocument();
+        return document.isString("_data") ? document.getString("_data").getValue() : document.toJson();
+    }
+
+    static BsonValue tokenFromString(String token) {
+        return token.startsWith("{") ? BsonDocument.parse(token) : new BsonDocument("_data", new BsonString(token));
+    }
+}
@@ -0,0 +1,119 @@
+package com.glenneligio.reactive.service;
+
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.repo.ProductRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Coalesces concurrent single product lookups into one findAllById ($in) query.
+ * A batch is sent once it holds maxBatchSize lookups or its window has passed, whichever comes first,
+ * and each waiting lookup gets its own product back, or completes empty if there is none.
+ * Batches that close while maxInFlightBatches are being looked up are not queued, their lookups each read their product directly.
+ * Should the batching stop, waiting lookups fail and later ones read their product directly.
+ */
+@Component
+@Slf4j
+public class ProductLookupBatcher {
+
+    private final ProductRepository repository;
+    private final Set<Lookup> pending = ConcurrentHashMap.newKeySet();
+    private final Disposable batches;
+    private volatile FluxSink<Lookup> lookups;
+    private volatile boolean stopped;
+
+    public ProductLookupBatcher(ProductProperties properties, ProductRepository repository) {
+        ProductProperties.Lookup config = properties.getLookup();
+        this.repository = repository;
+        this.batches = Flux.<Lookup>create(sink -> this.lookups = sink)
+                .bufferTimeout(config.getMaxBatchSize(), config.getWindow())
+                .onBackpressureDrop(this::findEach)
+                .flatMap(this::dispatch, config.getMaxInFlightBatches())
+                .doFinally(signal -> stop())
+                .subscribe(null, e -> log.error("Lookup batching stopped", e));
+    }
+
+    @PreDestroy
+    public void close() {
+        batches.dispose();
+    }
+
+    public Mono<Product> findById(String id) {
+        if (stopped) {
+            return repository.findById(id);
+        }
+        return Mono.create(sink -> {
+            Lookup lookup = new Lookup(id, sink);
+            pending.add(lookup);
+            lookups.next(lookup);
+            if (stopped && pending.remove(lookup)) {
+                sink.error(new IllegalStateException("Lookup batching stopped"));
+            }
+        });
+    }
+
+    private void stop() {
+        stopped = true;
+        IllegalStateException stoppedError = new IllegalStateException("Lookup batching stopped");
+        pending.removeIf(lookup -> {
+            lookup.sink().error(stoppedError);
+            return true;
+        });
+    }
+
+    private void findEach(List<Lookup> batch) {
+        log.debug("All lookup batches are in flight, looking up {} products one by one", batch.size());
+        for (Lookup lookup : batch) {
+            repository.findById(lookup.id())
+                    .doFinally(signal -> pending.remove(lookup))
+                    .subscribe(lookup.sink()::success, lookup.sink()::error, lookup.sink()::success);
+        }
+    }
+
+    private Mono<Void> dispatch(List<Lookup> batch) {
+        Set<String> ids = batch.stream()
+                .map(Lookup::id)
+                .collect(Collectors.toSet());
+        return repository.findAllById(ids)
+                .collectMap(Product::getId, Function.identity())
+                .doOnNext(found -> {
+                    complete(batch, found);
+                    batch.forEach(pending::remove);
+                })
+                .doOnError(e -> {
+                    log.warn("Lookup of {} products failed", ids.size(), e);
+                    batch.forEach(lookup -> lookup.sink().error(e));
+                    batch.forEach(pending::remove);
+                })
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private static void complete(List<Lookup> batch, Map<String, Product> found) {
+        for (Lookup lookup : batch) {
+            Product product = found.get(lookup.id());
+            if (product == null) {
+                lookup.sink().success();
+            } else {
+                lookup.sink().success(product);
+            }
+        }
+    }
+
+    private record Lookup(String id, MonoSink<Product> sink) {
+    }
+}
@@ -0,0 +1,177 @@
+package com.glenneligio.reactive.service;
+
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.ProductChangeEvent;
+import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.repo.ProductRepository;
+import com.glenneligio.reactive.util.AppUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * In-memory index of product names for prefix suggestions. Every product is stored under the lower-cased rest of its name
+ * from the start of each word, so "Red Apple" is found by "red" and by "app", and a lookup is a range scan of a sorted map.
+ * The index is loaded once the application is ready and kept current by local writes and the {@link ProductChangeFeed}.
+ */
+@Component
+@Slf4j
+public class ProductNameIndex {
+
+    // Sorts before every other character, so all keys of a name come right after the name itself
+    private static final char ID_SEPARATOR = '\u0000';
+
+    private final boolean enabled;
+    private final ProductRepository repository;
+    private final ConcurrentNavigableMap<String, Product> entries = new ConcurrentSkipListMap<>();
+    private final Map<String, Product> byId = new ConcurrentHashMap<>();
+    private final Disposable.Composite subscriptions = Disposables.composite();
+    private volatile boolean ready;
+
+    public ProductNameIndex(ProductProperties properties, ProductRepository repository, ProductChangeFeed changeFeed) {
+        this.enabled = properties.getSearch().isSuggestIndexEnabled();
+        this.repository = repository;
+        if (enabled) {
+            subscriptions.add(changeFeed.events().subscribe(this::apply));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        subscriptions.add(repository.findAll()
+                .doOnNext(this::putIfAbsent)
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+                .count()
+                .subscribe(count -> {
+                    ready = true;
+                    log.info("Loaded {} products into the name index", count);
+                }));
+    }
+
+    @PreDestroy
+    public void close() {
+        subscriptions.dispose();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether the index is enabled and fully loaded
+     */
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * Streams the products with a word in their name that starts with the prefix, ignoring case, ordered by the matching part of their name
+     */
+    public Flux<Product> suggest(String prefix, int limit) {
+        String from = normalize(prefix);
+        return Flux.defer(() -> Flux.fromIterable(entries.subMap(from, true, from + Character.MAX_VALUE, true).values()))
+                .distinct(Product::getId)
+                .take(limit)
+                .map(ProductNameIndex::copy);
+    }
+
+    public synchronized void put(Product product) {
+        if (!enabled || product.getId() == null) {
+            return;
+        }
+        remove(product.getId());
+        Product indexed = copy(product);
+        byId.put(indexed.getId(), indexed);
+        keys(indexed).forEach(key -> entries.put(key, indexed));
+    }
+
+    public synchronized void remove(String id) {
+        if (!enabled || id == null) {
+            return;
+        }
+        Product removed = byId.remove(id);
+        if (removed != null) {
+            keys(removed).forEach(entries::remove);
+        }
+    }
+
+    /**
+     * Removes the indexed products that match the filter, for deletes that do not report which products they removed
+     */
+    public synchronized void removeIf(Predicate<Product> filter) {
+        if (!enabled) {
+            return;
+        }
+        byId.values().stream()
+                .filter(filter)
+                .map(Product::getId)
+                .toList()
+                .forEach(this::remove);
+    }
+
+    /**
+     * Products already indexed by a write while loading are newer than the loaded ones
+     */
+    private synchronized void putIfAbsent(Product product) {
+        if (!byId.containsKey(product.getId())) {
+            put(product);
+        }
+    }
+
+    private void apply(ProductChangeEvent event) {
+        if (event.getProductId() == null) {
+            log.info("Reloading the name index after the change feed was invalidated");
+            ready = false;
+            synchronized (this) {
+                entries.clear();
+                byId.clear();
+            }
+            load();
+        } else if (event.getProduct() == null) {
+            remove(event.getProductId());
+        } else {
+            put(AppUtils.dtoToEntity(event.getProduct()));
+        }
+    }
+
+    private static List<String> keys(Product product) {
+        List<String> keys = new ArrayList<>();
+        if (product.getName() == null) {
+            return keys;
+        }
+        String name = normalize(product.getName());
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isWhitespace(name.charAt(i)) && (i == 0 || Character.isWhitespace(name.charAt(i - 1)))) {
+                keys.add(name.substring(i) + ID_SEPARATOR + product.getId());
+            }
+        }
+        return keys;
+    }
+
+    private static String normalize(String text) {
+        return text.strip().toLowerCase(Locale.ROOT);
+    }
+
+    private static Product copy(Product product) {
+        return new Product(product.getId(), product.getName(), product.getQty(), product.getPrice(), product.getVersion());
+    }
+}
@@ -1,51 +1,467 @@
 package com.glenneligio.reactive.service;
 
+import com.glenneligio.reactive.config.MetricsConfig;
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.BulkDeleteResultDto;
+import com.glenneligio.reactive.dto.BulkWriteResultDto;
+import com.glenneligio.reactive.dto.PriceCandleDto;
+import com.glenneligio.reactive.dto.ProductChangeEvent;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import com.glenneligio.reactive.dto.ProductStatsDto;
+import com.glenneligio.reactive.dto.QueryPlanDto;
+import com.glenneligio.reactive.entity.PricePoint;
 import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.filter.RequestLogFilter;
+import com.glenneligio.reactive.repo.PricePointRepository;
 import com.glenneligio.reactive.repo.ProductRepository;
+import com.glenneligio.reactive.repo.ProductRepositoryCustom.Revision;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Range;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import reactor.core.observability.micrometer.Micrometer;
+import reactor.core.publisher.BufferOverflowStrategy;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
 @Service
 @Slf4j
 public class ProductService {
 
+    private static final Sort BY_ID = Sort.by("id");
+
     @Autowired
     private ProductRepository repository;
 
-    public Flux<Product> getProducts() {
-        log.info("Fetching products in database");
-        return repository.findAll();
+    @Autowired
+    private ProductProperties properties;
+
+    @Autowired
+    private ProductCache cache;
+
+    @Autowired
+    private ProductLookupBatcher lookupBatcher;
+
+    @Autowired
+    private ProductStatsSummary statsSummary;
+
+    @Autowired
+    private ProductNameIndex nameIndex;
+
+    @Autowired
+    private ProductCatalogVersion catalogVersion;
+
+    @Autowired
+    private PriceHistoryRecorder priceHistory;
+
+    @Autowired
+    private PricePointRepository pricePointRepository;
+
+    @Autowired
+    private ProductChangeFeed changeFeed;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Fetches one page of products ordered by id, starting right after the given id.
+     * Paging on the indexed _id keeps every page a bounded index range scan instead of a skip.
+     * Pages are read with the point read preference, like reads by id, since they are tagged with {@link #getCatalogVersion}.
+     */
+    public Flux<Product> getProducts(int limit, String afterId) {
+        log.debug("Fetching {} products after id {} in database", limit, afterId);
+        return metered(repository.findPage(afterId, limit), "getProducts");
+    }
+
+    /**
+     * Streams every product ordered by id, starting right after the given id if present.
+     * Documents are pulled from the database cursor only as fast as the subscriber requests them.
+     */
+    public Flux<Product> streamProducts(String afterId) {
+        log.debug("Streaming products after id {} from database", afterId);
+        return metered(afterId == null
+                ? repository.findAll(BY_ID)
+                : repository.findByIdGreaterThanAndDeletedAtIsNull(afterId, BY_ID), "streamProducts");
+    }
+
+    /**
+     * Version of the whole catalog, which changes whenever a product is written through this node. Reading it never touches
+     * the database. It is read before the products, and pages tagged with it are read with the point read preference,
+     * so they are at least as new as it as long as that preference is primary.
+     */
+    public String getCatalogVersion() {
+        return catalogVersion.get();
     }
 
     public Mono<Product> getProductById(String id) {
-        log.info("Fetching product in database with id {}", id);
-        return repository.findById(id);
+        log.debug("Fetching product in database with id {}", id);
+        Function<String, Mono<Product>> loader = properties.getLookup().isBatchingEnabled()
+                ? lookupBatcher::findById
+                : repository::findById;
+        return metered(cache.get(id, loader), "getProductById");
+    }
+
+    /**
+     * Fetches the products with the given ids in a single $in query. Ids without a product are left out.
+     */
+    public Flux<Product> getProductsByIds(Collection<String> ids) {
+        log.debug("Fetching {} products by id in database", ids.size());
+        return metered(repository.findAllById(new LinkedHashSet<>(ids)), "getProductsByIds");
     }
 
     public Flux<Product> getProductByPriceRange(double min, double max) {
-        log.info("Fetching all products with price between {} and {} in database", min, max);
-        return repository.findByPriceBetween(Range.closed(min, max));
+        return getProductByPriceRange(min, max, null, null);
+    }
+
+    /**
+     * Fetches products with a price in the closed range, optionally sorted by price (ties broken by id) and limited.
+     * Both are pushed down to the database so the price_id index can answer the query without an in-memory sort.
+     */
+    public Flux<Product> getProductByPriceRange(double min, double max, Sort.Direction direction, Integer limit) {
+        log.debug("Fetching products with price between {} and {} in database sorted {} limited to {}", min, max, direction, limit);
+        Range<Double> range = Range.closed(min, max);
+        if (direction == null && limit == null) {
+            return metered(repository.findByPriceBetweenAndDeletedAtIsNull(range), "getProductByPriceRange");
+        }
+        Sort sort = direction == null ? Sort.unsorted() : Sort.by(direction, "price", "id");
+        return metered(limit == null
+                ? repository.findByPriceBetweenAndDeletedAtIsNull(range, sort)
+                : repository.findByPriceBetweenAndDeletedAtIsNull(range, PageRequest.of(0, limit, sort)), "getProductByPriceRange");
+    }
+
+    public Mono<QueryPlanDto> explainProductByPriceRange(double min, double max, Sort.Direction direction, Integer limit) {
+        log.debug("Explaining price range query between {} and {} sorted {} limited to {}", min, max, direction, limit);
+        return metered(repository.explainPriceRange(min, max, direction, limit), "explainProductByPriceRange");
+    }
+
+    /**
+     * Streams the products whose name matches the text search, most relevant first
+     */
+    public Flux<Product> searchProducts(String text, int limit) {
+        log.debug("Searching {} products matching {} in database", limit, text);
+        return metered(repository.searchByName(text, limit), "searchProducts");
+    }
+
+    /**
+     * Streams the raw documents of all products in batches of batchSize, as the driver fetched them, for exports that
+     * should not map every document to a product
+     */
+    public Flux<List<Document>> exportProducts(List<String> fields, int batchSize) {
+        log.debug("Exporting fields {} of all products in batches of {}", fields, batchSize);
+        return metered(repository.exportProducts(fields, batchSize)
+                .buffer(batchSize), "exportProducts");
+    }
+
+    /**
+     * Streams products for autocomplete. Once loaded, the in-memory name index matches the prefix against the start of every word
+     * in the name; until then, or without the index, the database matches it against the start of the name.
+     */
+    public Flux<Product> suggestProducts(String prefix, int limit) {
+        log.debug("Suggesting {} products starting with {}", limit, prefix);
+        if (nameIndex.isReady()) {
+            return metered(nameIndex.suggest(prefix, limit), "suggestProducts");
+        }
+        return metered(repository.findByNameStartingWithIgnoreCaseAndDeletedAtIsNull(prefix, PageRequest.of(0, limit, Sort.by("name"))), "suggestProducts");
+    }
+
+    /**
+     * Computes inventory and price statistics of the products with a price in the optional range, with a price histogram
+     * over the given boundaries or over the given number of buckets picked by the database.
+     * Statistics of all products with the default buckets come from the in-memory summary when it is enabled.
+     */
+    public Mono<ProductStatsDto> getProductStats(Double minPrice, Double maxPrice, List<Double> boundaries, Integer buckets) {
+        log.debug("Computing statistics of products with price between {} and {}", minPrice, maxPrice);
+        ProductProperties.Stats stats = properties.getStats();
+        int bucketCount = buckets == null ? stats.getDefaultBuckets() : buckets;
+        if (minPrice == null && maxPrice == null) {
+            Mono<ProductStatsDto> all = Mono.defer(() -> repository.priceStats(null, boundaries, bucketCount));
+            boolean summarized = stats.isSummaryEnabled() && boundaries == null && bucketCount == stats.getDefaultBuckets();
+            return metered(summarized ? statsSummary.get(() -> all) : all, "getProductStats");
+        }
+        return metered(repository.priceStats(priceRange(minPrice, maxPrice), boundaries, bucketCount), "getProductStats");
+    }
+
+    /**
+     * Streams the price points of the product in the time range, oldest first
+     */
+    public Flux<PricePoint> getPriceHistory(String id, Instant from, Instant to) {
+        log.debug("Fetching price history of product {} from {} to {}", id, from, to);
+        return metered(pricePointRepository.findByProductIdAndTimestampBetween(id, timeRange(from, to), Sort.by("timestamp")),
+                "getPriceHistory");
     }
 
+    /**
+     * Downsamples the price history of the product in the time range into one candle per hour or day, computed by the database
+     */
+    public Flux<PriceCandleDto> getPriceCandles(String id, Instant from, Instant to, String unit) {
+        log.debug("Fetching {} price candles of product {} from {} to {}", unit, id, from, to);
+        return metered(pricePointRepository.findCandles(id, timeRange(from, to), unit), "getPriceCandles");
+    }
+
+    private static Range<Double> priceRange(Double minPrice, Double maxPrice) {
+        return Range.of(minPrice == null ? Range.Bound.unbounded() : Range.Bound.inclusive(minPrice),
+                maxPrice == null ? Range.Bound.unbounded() : Range.Bound.inclusive(maxPrice));
+    }
+
+    private static Range<Instant> timeRange(Instant from, Instant to) {
+        return Range.of(from == null ? Range.Bound.unbounded() : Range.Bound.inclusive(from),
+                to == null ? Range.Bound.unbounded() : Range.Bound.exclusive(to));
+    }
+
+    /**
+     * Streams changes to products that match the filters, continuing after the event with the given resume token if it is still known.
+     * Deletes and invalidations carry no product, so they always pass the price filter.
+     * Each subscriber gets its own bounded buffer handled by the configured overflow policy.
+     */
+    public Flux<ProductChangeEvent> streamProductChanges(Double minPrice, Double maxPrice, Set<String> ids, String lastEventId) {
+        log.debug("Streaming product changes after {}", lastEventId);
+        ProductProperties.Stream stream = properties.getStream();
+        Flux<ProductChangeEvent> changes = changeFeed.eventsAfter(lastEventId)
+                .filter(event -> ids == null || ids.isEmpty() || ids.contains(event.getProductId()))
+                .filter(event -> event.getProduct() == null
+                        || (minPrice == null || event.getProduct().getPrice() >= minPrice)
+                        && (maxPrice == null || event.getProduct().getPrice() <= maxPrice));
+        if (stream.getOverflowPolicy() == ProductProperties.Stream.OverflowPolicy.DISCONNECT) {
+            return metered(changes.onBackpressureBuffer(stream.getBufferSize()), "streamProductChanges");
+        }
+        return metered(changes.onBackpressureBuffer(stream.getBufferSize(),
+                dropped -> meterRegistry.counter("products.stream.dropped").increment(),
+                BufferOverflowStrategy.DROP_OLDEST), "streamProductChanges");
+    }
+
+    /**
+     * Creates the product, or replaces the one with its id. With soft delete it only inserts, so a soft deleted product
+     * is not brought back, and fails with {@link DuplicateKeyException} if its id is taken, until the purge frees it.
+     */
     public Mono<Product> saveProduct(Product product) {
-        log.info("Saving product {}", product);
-        return repository.save(product);
+        log.debug("Saving product {}", product);
+        Mono<Product> write = properties.getDelete().isSoftDelete() ? repository.insert(product) : repository.save(product);
+        return metered(write
+                .doOnNext(saved -> {
+                    invalidate(saved.getId());
+                    nameIndex.put(saved);
+                    priceHistory.record(saved);
+                }), "saveProduct");
+    }
+
+    /**
+     * Writes the products in batches of unordered bulkWrites, with a bounded number of batches in flight.
+     * A batch that fails as a whole is reported with all its products counted as failed, like products that are soft deleted.
+     * Bulk writes do not return documents, so with the name index or price history enabled the products of a batch that have an id
+     * are read once before it is written. The versions the write stores and which prices or quantities it changes follow from that.
+     */
+    public Flux<BulkWriteResultDto> bulkSaveProducts(Flux<Product> products) {
+        ProductProperties.Bulk bulk = properties.getBulk();
+        return metered(products.buffer(bulk.getBatchSize())
+                .index()
+                .flatMapSequential(batch -> storedBefore(batch.getT2()).flatMap(stored -> {
+                            // Taken before the write gives new products their ids
+                            List<Long> versions = batch.getT2().stream().map(product -> versionAfterWrite(product, stored)).toList();
+                            return repository.bulkUpsert(batch.getT2())
+                                    .onErrorResume(e -> Mono.deferContextual(context -> {
+                                        RequestLogFilter.withMdc(context, () -> log.error("Bulk write of batch {} failed", batch.getT1(), e));
+                                        return Mono.just(new BulkWriteResultDto(0, batch.getT2().size(), 0, 0, 0, batch.getT2().size()));
+                                    }))
+                                    .doOnNext(result -> {
+                                        result.setBatch(batch.getT1());
+                                        // Which products of a partly failed batch were written is not known, so only complete batches are applied
+                                        if (result.getFailed() == 0) {
+                                            applyWritten(batch.getT2(), versions, stored);
+                                        }
+                                    });
+                        })
+                        .transform(write -> invalidateAfter(write, () -> {
+                            cache.invalidateAll(batch.getT2().stream()
+                                    .map(Product::getId)
+                                    .filter(Objects::nonNull)
+                                    .toList());
+                            statsSummary.invalidate();
+                            catalogVersion.increment();
+                        })),
+                        bulk.getMaxInFlightBatches()), "bulkSaveProducts");
     }
 
+    /**
+     * Replaces the product in a single round trip.
+     * Fails with {@link OptimisticLockingFailureException} if the product was given a version that is no longer current.
+     */
     public Mono<Product> updateProduct(Product product, String id) {
-        log.info("Updating product with id {}, using data {}", id, product);
-        return repository.findById(id)
-                .flatMap(p -> Mono.just(product))
-                .doOnNext(p -> p.setId(id))
-                .flatMap(repository::save);
+        log.debug("Updating product with id {}, using data {}", id, product);
+        return metered(repository.replaceProduct(id, product)
+                .map(this::recordRevision)
+                .switchIfEmpty(versionConflict(id, product.getVersion()))
+                .transform(write -> invalidateAfter(write, () -> invalidate(id))), "updateProduct");
     }
 
+    /**
+     * Applies a partial update in a single round trip. qtyDelta is applied with $inc,
+     * so concurrent stock changes never overwrite each other.
+     */
+    public Mono<Product> patchProduct(ProductPatchDto patch, String id) {
+        log.debug("Patching product with id {}, using data {}", id, patch);
+        return metered(repository.patchProduct(id, patch)
+                .map(this::recordRevision)
+                .switchIfEmpty(versionConflict(id, patch.getVersion()))
+                .transform(write -> invalidateAfter(write, () -> invalidate(id))), "patchProduct");
+    }
+
+    /**
+     * Deletes the product, or only sets its deletedAt when soft delete is enabled
+     */
     public Mono<Void> deleteProduct(String id) {
-        log.info("Deleting product with id {}", id);
-        return repository.deleteById(id);
+        log.debug("Deleting product with id {}", id);
+        Mono<Void> delete = properties.getDelete().isSoftDelete()
+                ? repository.softDeleteProducts(List.of(id), null, Instant.now()).then()
+                : repository.deleteById(id);
+        return metered(delete
+                .transform(write -> invalidateAfter(write, () -> {
+                    invalidate(id);
+                    nameIndex.remove(id);
+                })), "deleteProduct");
+    }
+
+    /**
+     * Deletes the products with the given ids, or if ids is null all products with a price in the closed range, in one round trip.
+     * With soft delete enabled they only get a deletedAt, which hides them from all queries until the database purges them.
+     * Products deleted by price are not known one by one, so the whole cache is dropped.
+     */
+    public Mono<BulkDeleteResultDto> deleteProducts(Collection<String> ids, Double minPrice, Double maxPrice) {
+        log.debug("Deleting {} products by id or with price between {} and {}", ids == null ? 0 : ids.size(), minPrice, maxPrice);
+        boolean soft = properties.getDelete().isSoftDelete();
+        Range<Double> range = ids == null ? priceRange(minPrice, maxPrice) : null;
+        Mono<Long> delete = soft
+                ? repository.softDeleteProducts(ids, range, Instant.now())
+                : repository.deleteProducts(ids, range);
+        return metered(delete.map(deleted -> new BulkDeleteResultDto(deleted, soft))
+                .transform(write -> invalidateAfter(write, () -> {
+                    if (ids == null) {
+                        cache.invalidateAll();
+                        nameIndex.removeIf(product -> range.contains(product.getPrice()));
+                    } else {
+                        cache.invalidateAll(ids);
+                        ids.forEach(nameIndex::remove);
+                    }
+                    statsSummary.invalidate();
+                    catalogVersion.increment();
+                })), "deleteProducts");
+    }
+
+    /**
+     * Stored products of the batch by id, or none if neither the name index nor the price history is enabled.
+     * A failed read only makes the batch look new to both, so the bulk write goes ahead.
+     */
+    private Mono<Map<String, Product>> storedBefore(List<Product> batch) {
+        List<String> ids = batch.stream().map(Product::getId).filter(Objects::nonNull).toList();
+        if (ids.isEmpty() || !nameIndex.isEnabled() && !priceHistory.isEnabled()) {
+            return Mono.just(Map.of());
+        }
+        return repository.findAllById(ids)
+                .collectMap(Product::getId)
+                .onErrorResume(e -> Mono.deferContextual(context -> {
+                    RequestLogFilter.withMdc(context, () -> log.warn("Could not read {} products before the bulk write", batch.size(), e));
+                    return Mono.just(Map.of());
+                }));
+    }
+
+    /**
+     * Version a bulk written product is stored at, following {@link ProductRepository#bulkUpsert}
+     */
+    private static Long versionAfterWrite(Product product, Map<String, Product> stored) {
+        if (product.getId() == null) {
+            return 0L;
+        }
+        if (product.getVersion() != null) {
+            return product.getVersion() + 1;
+        }
+        Product previous = stored.get(product.getId());
+        return previous == null || previous.getVersion() == null ? 1L : previous.getVersion() + 1;
+    }
+
+    /**
+     * Indexes the products of a completely written batch, and records the new ones and those whose price or quantity changed
+     */
+    private void applyWritten(List<Product> batch, List<Long> versions, Map<String, Product> stored) {
+        if (!nameIndex.isEnabled() && !priceHistory.isEnabled()) {
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Product product = batch.get(i);
+            Product written = new Product(product.getId(), product.getName(), product.getQty(), product.getPrice(), versions.get(i));
+            Product previous = stored.get(written.getId());
+            nameIndex.put(written);
+            if (previous == null || new Revision(previous, written).isPriceOrQtyChanged()) {
+                priceHistory.record(written);
+            }
+        }
+    }
+
+    /**
+     * Indexes the updated product, and records it in the price history if the update changed its price or quantity.
+     */
+    private Product recordRevision(Revision revision) {
+        nameIndex.put(revision.current());
+        if (revision.isPriceOrQtyChanged()) {
+            priceHistory.record(revision.current());
+        }
+        return revision.current();
+    }
+
+    /**
+     * Tells apart a missing product from a stale version once a versioned update matched nothing.
+     * The extra lookup only happens on that failure path.
+     */
+    private Mono<Product> versionConflict(String id, Long version) {
+        if (version == null) {
+            return Mono.empty();
+        }
+        return repository.existsById(id)
+                .flatMap(exists -> exists
+                        ? Mono.error(new OptimisticLockingFailureException("Product " + id + " is no longer at version " + version))
+                        : Mono.empty());
+    }
+
+    /**
+     * Publishes latency, subscription and request metrics of the sequence as products.service meters tagged with the method name
+     */
+    private <T> Flux<T> metered(Flux<T> flux, String method) {
+        return flux.name(MetricsConfig.SERVICE_METRICS)
+                .tag("method", method)
+                .tap(Micrometer.metrics(meterRegistry));
+    }
+
+    private <T> Mono<T> metered(Mono<T> mono, String method) {
+        return mono.name(MetricsConfig.SERVICE_METRICS)
+                .tag("method", method)
+                .tap(Micrometer.metrics(meterRegistry));
+    }
+
+    private void invalidate(String id) {
+        cache.invalidate(id);
+        statsSummary.invalidate();
+        catalogVersion.increment();
+    }
+
+    /**
+     * Runs the cache invalidation once the write is done, before its result reaches the subscriber,
+     * so a read chained after the write cannot be served the old cached product
+     */
+    private static <T> Mono<T> invalidateAfter(Mono<T> write, Runnable invalidation) {
+        return write.doOnTerminate(invalidation)
+                .doOnCancel(invalidation);
     }
 }
@@ -0,0 +1,81 @@
+package com.glenneligio.reactive.service;
+
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.ProductStatsDto;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Statistics of all products kept in memory, so the common dashboard query does not scan the collection.
+ * Every product change, local or from the {@link ProductChangeFeed}, marks the statistics stale. Stale statistics are
+ * recomputed by a single aggregation shared by all concurrent readers, at most once per minimum refresh interval;
+ * in between, readers get the last statistics.
+ */
+@Component
+public class ProductStatsSummary {
+
+    private final long minRefreshNanos;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicReference<CompletableFuture<ProductStatsDto>> refreshing = new AtomicReference<>();
+    private final Disposable changes;
+    private volatile Snapshot snapshot;
+
+    public ProductStatsSummary(ProductProperties properties, ProductChangeFeed changeFeed) {
+        this.minRefreshNanos = properties.getStats().getSummaryMinRefreshInterval().toNanos();
+        this.changes = changeFeed.events().subscribe(event -> invalidate());
+    }
+
+    @PreDestroy
+    public void close() {
+        changes.dispose();
+    }
+
+    public Mono<ProductStatsDto> get(Supplier<Mono<ProductStatsDto>> loader) {
+        Snapshot current = snapshot;
+        if (current != null && (current.generation() == generation.get()
+                || System.nanoTime() - current.computedAt() < minRefreshNanos)) {
+            return Mono.just(current.stats());
+        }
+        // A cancelled reader must not cancel the aggregation other readers may be waiting on
+        return Mono.fromFuture(() -> refresh(loader), true);
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    private CompletableFuture<ProductStatsDto> refresh(Supplier<Mono<ProductStatsDto>> loader) {
+        CompletableFuture<ProductStatsDto> next = new CompletableFuture<>();
+        CompletableFuture<ProductStatsDto> running = refreshing.compareAndExchange(null, next);
+        if (running != null) {
+            return running;
+        }
+        // Changes made while the aggregation runs leave the result stale
+        long computedGeneration = generation.get();
+        long startedAt = System.nanoTime();
+        loader.get().subscribe(stats -> {
+            snapshot = new Snapshot(computedGeneration, startedAt, stats);
+            refreshing.set(null);
+            next.complete(stats);
+        }, e -> {
+            refreshing.set(null);
+            next.completeExceptionally(e);
+        }, () -> {
+            if (!next.isDone()) {
+                refreshing.set(null);
+                next.complete(null);
+            }
+        });
+        return next;
+    }
+
+    private record Snapshot(long generation, long computedAt, ProductStatsDto stats) {
+    }
+}
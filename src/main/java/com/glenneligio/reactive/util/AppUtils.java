@@ -1,20 +1,48 @@
 package com.glenneligio.reactive.util;
 
+import com.glenneligio.reactive.dto.PricePointDto;
 import com.glenneligio.reactive.dto.ProductDto;
+import com.glenneligio.reactive.entity.PricePoint;
 import com.glenneligio.reactive.entity.Product;
-import org.springframework.beans.BeanUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 
 public class AppUtils {
 
+    // Fields are copied by hand instead of with BeanUtils.copyProperties, which looks up property descriptors
+    // and calls accessors reflectively for every object. These run once per product on every request.
+
     public static ProductDto entityToDto(Product product) {
-        ProductDto dto = new ProductDto();
-        BeanUtils.copyProperties(product, dto);
-        return dto;
+        return new ProductDto(product.getId(), product.getName(), product.getQty(), product.getPrice(), product.getVersion());
     }
 
     public static Product dtoToEntity(ProductDto dto) {
-        Product product = new Product();
-        BeanUtils.copyProperties(dto, product);
-        return product;
+        return new Product(dto.getId(), dto.getName(), dto.getQty(), dto.getPrice(), dto.getVersion());
+    }
+
+    public static PricePointDto pricePointToDto(PricePoint point) {
+        return new PricePointDto(point.getTimestamp(), point.getPrice(), point.getQty(), point.getVersion());
+    }
+
+    /**
+     * Encodes the id of the last item of a page into an opaque cursor token
+     */
+    public static String encodeCursor(String id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor token created by {@link #encodeCursor(String)} back into a product id
+     *
+     * @throws IllegalArgumentException if the token is not a valid cursor
+     */
+    public static String decodeCursor(String cursor) {
+        String id = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        if (id.isBlank()) {
+            throw new IllegalArgumentException("Cursor does not contain an id");
+        }
+        return id;
     }
 }
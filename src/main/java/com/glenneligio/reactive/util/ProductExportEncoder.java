@@ -0,0 +1,182 @@
+package com.glenneligio.reactive.util;
+
+import org.bson.Document;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes product documents read from the database as NDJSON or CSV rows straight into {@link DataBuffer}s, one buffer per batch of rows.
+ * With gzip, each buffer holds the compressed batch flushed with SYNC_FLUSH, so the client can decompress as rows arrive.
+ * An encoder keeps the compression state of one export and must not be shared, its deflater is released when the export
+ * completes, fails or is cancelled. Prices that are NaN or infinite have no JSON number form and are written as null.
+ */
+public class ProductExportEncoder {
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    /** Fields in the order they are written, "id" is read from _id */
+    public static final List<String> FIELDS = List.of("id", "name", "qty", "price", "version");
+
+    private final Format format;
+    private final List<String> fields;
+    private final DataBufferFactory bufferFactory;
+    private final ByteArrayOutputStream compressed;
+    private final GZIPOutputStream gzip;
+    private boolean headerWritten;
+
+    public ProductExportEncoder(Format format, List<String> fields, boolean gzip, DataBufferFactory bufferFactory) {
+        this.format = format;
+        this.fields = fields;
+        this.bufferFactory = bufferFactory;
+        this.compressed = gzip ? new ByteArrayOutputStream() : null;
+        this.gzip = gzip ? newGzip(compressed) : null;
+    }
+
+    public Flux<DataBuffer> encode(Flux<List<Document>> batches) {
+        // A CSV export without products still gets its header
+        Flux<DataBuffer> buffers = (format == Format.CSV ? batches.defaultIfEmpty(List.of()) : batches)
+                .map(this::encodeBatch);
+        return gzip == null ? buffers : buffers.concatWith(Mono.fromCallable(this::finish)).doFinally(signal -> close());
+    }
+
+    private DataBuffer encodeBatch(List<Document> batch) {
+        StringBuilder rows = new StringBuilder(batch.size() * 64);
+        if (format == Format.CSV && !headerWritten) {
+            rows.append(String.join(",", fields)).append('\n');
+            headerWritten = true;
+        }
+        for (Document document : batch) {
+            if (format == Format.CSV) {
+                appendCsv(document, rows);
+            } else {
+                appendJson(document, rows);
+            }
+        }
+        if (gzip == null) {
+            DataBuffer buffer = bufferFactory.allocateBuffer(rows.length());
+            return buffer.write(rows, StandardCharsets.UTF_8);
+        }
+        try {
+            gzip.write(rows.toString().getBytes(StandardCharsets.UTF_8));
+            gzip.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return drainCompressed();
+    }
+
+    private DataBuffer finish() throws IOException {
+        gzip.finish();
+        return drainCompressed();
+    }
+
+    private void close() {
+        try {
+            gzip.close();
+        } catch (IOException e) {
+            // Only the in-memory buffer is closed, nothing to report
+        }
+    }
+
+    private DataBuffer drainCompressed() {
+        DataBuffer buffer = bufferFactory.wrap(compressed.toByteArray());
+        compressed.reset();
+        return buffer;
+    }
+
+    private void appendJson(Document document, StringBuilder row) {
+        row.append('{');
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i);
+            if (i > 0) {
+                row.append(',');
+            }
+            row.append('"').append(field).append("\":");
+            Object value = value(document, field);
+            if (value == null || isNonFinite(value)) {
+                row.append("null");
+            } else if (value instanceof Number) {
+                row.append(value);
+            } else {
+                appendJsonString(value.toString(), row);
+            }
+        }
+        row.append("}\n");
+    }
+
+    private void appendCsv(Document document, StringBuilder row) {
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            Object value = value(document, fields.get(i));
+            if (isNonFinite(value)) {
+                continue;
+            }
+            if (value instanceof Number) {
+                row.append(value);
+            } else if (value != null) {
+                appendCsvString(value.toString(), row);
+            }
+        }
+        row.append('\n');
+    }
+
+    private static Object value(Document document, String field) {
+        return document.get("id".equals(field) ? "_id" : field);
+    }
+
+    private static boolean isNonFinite(Object value) {
+        return (value instanceof Double d && !Double.isFinite(d)) || (value instanceof Float f && !Float.isFinite(f));
+    }
+
+    private static void appendJsonString(String value, StringBuilder row) {
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> row.append("\\\"");
+                case '\\' -> row.append("\\\\");
+                case '\n' -> row.append("\\n");
+                case '\r' -> row.append("\\r");
+                case '\t' -> row.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        row.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        row.append(c);
+                    }
+                }
+            }
+        }
+        row.append('"');
+    }
+
+    private static void appendCsvString(String value, StringBuilder row) {
+        boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!quote) {
+            row.append(value);
+            return;
+        }
+        row.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private static GZIPOutputStream newGzip(ByteArrayOutputStream out) {
+        try {
+            return new GZIPOutputStream(out, 8192, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.glenneligio.reactive.config;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class MongoClientConfigTest {
+
+    @Test
+    @DisplayName("A numeric w is a member count, anything else a tag, and journal and timeout are applied on top")
+    void writeConcern_parsesProfile() {
+        ProductProperties.WriteConcernProfile profile = new ProductProperties.WriteConcernProfile();
+        profile.setW("2");
+        Assertions.assertEquals(new WriteConcern(2), MongoClientConfig.writeConcern(profile));
+
+        profile.setW("majority");
+        profile.setJournal(true);
+        profile.setTimeout(Duration.ofSeconds(2));
+        Assertions.assertEquals(WriteConcern.MAJORITY.withJournal(true).withWTimeout(2, TimeUnit.SECONDS),
+                MongoClientConfig.writeConcern(profile));
+    }
+
+    @Test
+    @DisplayName("A profile without settings or with a blank w leaves the client's write concern alone")
+    void writeConcern_withBlankW_isNotSet() {
+        ProductProperties.WriteConcernProfile profile = new ProductProperties.WriteConcernProfile();
+        Assertions.assertNull(MongoClientConfig.writeConcern(profile));
+
+        profile.setW("");
+        Assertions.assertNull(MongoClientConfig.writeConcern(profile));
+
+        profile.setJournal(true);
+        Assertions.assertEquals(WriteConcern.ACKNOWLEDGED.withJournal(true), MongoClientConfig.writeConcern(profile));
+    }
+
+    @Test
+    @DisplayName("Compressors are parsed case-insensitively and unknown ones are rejected")
+    void compressor_parsesKnownNames() {
+        Assertions.assertEquals("zstd", MongoClientConfig.compressor("ZSTD").getName());
+        Assertions.assertEquals("snappy", MongoClientConfig.compressor("snappy").getName());
+        Assertions.assertEquals("zlib", MongoClientConfig.compressor("Zlib").getName());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MongoClientConfig.compressor("lz4"));
+    }
+
+    @Test
+    @DisplayName("The primary template keeps the client's read preference, the repository's scan template reads with the scan one")
+    void templates_useTheirReadPreference() {
+        ProductProperties properties = new ProductProperties();
+        properties.getMongo().setScanReadPreference("secondaryPreferred");
+        MongoClientConfig config = new MongoClientConfig();
+        try (MongoClient client = MongoClients.create()) {
+            SimpleReactiveMongoDatabaseFactory factory = new SimpleReactiveMongoDatabaseFactory(client, "test");
+            MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+
+            Assertions.assertNull(ReflectionTestUtils.getField(config.reactiveMongoTemplate(factory, converter), "readPreference"));
+            Assertions.assertEquals(ReadPreference.secondaryPreferred(), ReflectionTestUtils.getField(
+                    config.scanMongoTemplate(factory, converter, properties), "readPreference"));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.glenneligio.reactive.config;
+
+import com.glenneligio.reactive.dto.ProductDto;
+import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.repo.ProductRepositoryCustomImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+public class ProductRuntimeHintsTest {
+
+    @Test
+    @DisplayName("Entities, DTOs, repository fragments and the Caffeine classes in use are registered for reflection")
+    void registerHints_registersReflectivelyUsedTypes() throws NoSuchMethodException {
+        RuntimeHints hints = new RuntimeHints();
+        new ProductRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onMethod(Product.class.getMethod("getPrice")).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onMethod(ProductDto.class.getMethod("setName", String.class)).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onType(ProductRepositoryCustomImpl.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onType(TypeReference.of("com.github.benmanes.caffeine.cache.SSSMSW"))
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS).test(hints));
+    }
+}
@@ -1,11 +1,23 @@
 package com.glenneligio.reactive.controller;
 
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.BulkDeleteResultDto;
+import com.glenneligio.reactive.dto.BulkWriteResultDto;
+import com.glenneligio.reactive.dto.PricePointDto;
+import com.glenneligio.reactive.dto.ProductChangeEvent;
+import com.glenneligio.reactive.dto.ProductDeleteDto;
 import com.glenneligio.reactive.dto.ProductDto;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import com.glenneligio.reactive.dto.ProductStatsDto;
+import com.glenneligio.reactive.dto.QueryPlanDto;
+import com.glenneligio.reactive.entity.PricePoint;
 import com.glenneligio.reactive.entity.Product;
 import com.glenneligio.reactive.service.ProductService;
 import com.glenneligio.reactive.util.AppUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -13,25 +25,42 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
 
 import static org.mockito.Mockito.*;
 
 @ExtendWith(SpringExtension.class)
-@WebFluxTest(ProductController.class)
+@WebFluxTest(controllers = ProductController.class, properties = "products.change-stream.enabled=true")
 @Slf4j
 public class ProductControllerTest {
 
     @Autowired
     private WebTestClient webTestClient;
 
+    @Autowired
+    private ProductProperties properties;
+
     @MockBean
     private ProductService service;
 
@@ -42,18 +71,20 @@ public class ProductControllerTest {
         p1 = new Product(new ObjectId().toHexString(), "Product1", 1, 20.1);
         p2 = new Product(new ObjectId().toHexString(), "Product2", 2, 25);
         p3 = new Product(new ObjectId().toHexString(), "Product3", 2, 30);
+        when(service.getCatalogVersion()).thenReturn("epoch-1");
     }
 
     @Test
     @DisplayName("Get all products and returns 200OK with the Products")
     void getProducts_returns200OKWithProducts() {
         Flux<Product> productFlux = Flux.just(p1, p2, p3);
-        when(service.getProducts()).thenReturn(productFlux);
+        when(service.getProducts(101, null)).thenReturn(productFlux);
 
         Flux<ProductDto> productFluxExchangeResult = webTestClient.get()
                 .uri("/products")
                 .exchange()
                 .expectStatus().isOk()
+                .expectHeader().doesNotExist(ProductController.NEXT_CURSOR_HEADER)
                 .returnResult(ProductDto.class)
                 .getResponseBody();
 
@@ -65,6 +96,139 @@ public class ProductControllerTest {
                 .verifyComplete();
     }
 
+    @Test
+    @DisplayName("Get products with a limit returns the page with a cursor to the next page")
+    void getProducts_withLimit_returnsPageWithNextCursor() {
+        String after = AppUtils.encodeCursor(p1.getId());
+        when(service.getProducts(2, p1.getId())).thenReturn(Flux.just(p2, p3));
+        String expectedCursor = AppUtils.encodeCursor(p2.getId());
+
+        Flux<ProductDto> productFluxResult = webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/products")
+                        .queryParam("limit", 1)
+                        .queryParam("after", after).build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(ProductController.NEXT_CURSOR_HEADER, expectedCursor)
+                .expectHeader().valueEquals(HttpHeaders.LINK, "</products?limit=1&after=" + expectedCursor + ">; rel=\"next\"")
+                .returnResult(ProductDto.class)
+                .getResponseBody();
+
+        StepVerifier.create(productFluxResult)
+                .expectSubscription()
+                .expectNext(AppUtils.entityToDto(p2))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Get products with a malformed cursor returns 400 Bad Request")
+    void getProducts_withInvalidCursor_returns400BadRequest() {
+        webTestClient.get()
+                .uri("/products?after=%%%")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Stream all products as NDJSON returns 200OK with the Products")
+    void streamProducts_returns200OKWithNdjsonProducts() {
+        when(service.streamProducts(null)).thenReturn(Flux.just(p1, p2, p3));
+
+        Flux<ProductDto> productFluxResult = webTestClient.get()
+                .uri("/products")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(ProductDto.class)
+                .getResponseBody();
+
+        StepVerifier.create(productFluxResult)
+                .expectSubscription()
+                .expectNext(AppUtils.entityToDto(p1), AppUtils.entityToDto(p2), AppUtils.entityToDto(p3))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Stream all products as Smile returns 200OK with the Products in binary")
+    void streamProducts_withSmileAccept_returnsSmileProducts() {
+        when(service.streamProducts(null)).thenReturn(Flux.just(p1, p2, p3));
+
+        Flux<ProductDto> productFluxResult = webTestClient.get()
+                .uri("/products")
+                .accept(MediaType.valueOf(ProductController.SMILE_STREAM_VALUE))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.valueOf(ProductController.SMILE_STREAM_VALUE))
+                .returnResult(ProductDto.class)
+                .getResponseBody();
+
+        StepVerifier.create(productFluxResult)
+                .expectSubscription()
+                .expectNext(AppUtils.entityToDto(p1), AppUtils.entityToDto(p2), AppUtils.entityToDto(p3))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Get product by id as Smile returns the Product in binary, JSON stays the default")
+    void getProductById_withSmileAccept_returnsSmileProduct() {
+        when(service.getProductById(p1.getId())).thenReturn(Mono.just(p1));
+
+        webTestClient.get()
+                .uri("/products/" + p1.getId())
+                .accept(MediaType.valueOf(ProductController.SMILE_VALUE))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.valueOf(ProductController.SMILE_VALUE))
+                .expectBody(ProductDto.class)
+                .isEqualTo(AppUtils.entityToDto(p1));
+        webTestClient.get()
+                .uri("/products/" + p1.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON);
+    }
+
+    @Test
+    @DisplayName("Stream product changes returns Server-Sent Events with the resume token as id")
+    void streamProductChanges_returnsServerSentEvents() {
+        ProductChangeEvent change = new ProductChangeEvent("token-1", "update", p1.getId(), AppUtils.entityToDto(p1), Instant.now());
+        when(service.streamProductChanges(null, 25.0, null, "token-0")).thenReturn(Flux.just(change));
+
+        Flux<ServerSentEvent<ProductChangeEvent>> events = webTestClient.get()
+                .uri("/products/stream?maxPrice=25")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .header("Last-Event-ID", "token-0")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ProductChangeEvent>>() {
+                })
+                .getResponseBody();
+
+        StepVerifier.create(events)
+                .expectSubscription()
+                .expectNextMatches(event -> "token-1".equals(event.id())
+                        && "update".equals(event.event())
+                        && p1.getId().equals(event.data().getProductId()))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Stream product changes without change streams returns 404 Not Found")
+    void streamProductChanges_withoutChangeStream_returns404NotFound() {
+        properties.getChangeStream().setEnabled(false);
+        try {
+            webTestClient.get()
+                    .uri("/products/stream")
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .exchange()
+                    .expectStatus().isNotFound();
+        } finally {
+            properties.getChangeStream().setEnabled(true);
+        }
+    }
+
     @Test
     @DisplayName("Get product with valid id returns 200OK with corresponding Product")
     void getProductById_withValidId_returns200OKWithCorrectProduct() {
@@ -86,13 +250,195 @@ public class ProductControllerTest {
                 .verify();
     }
 
+    @Test
+    @DisplayName("Get products by ids returns 200OK with the Products that exist")
+    void getProductsByIds_returns200OKWithExistingProducts() {
+        List<String> ids = List.of(p1.getId(), p2.getId(), new ObjectId().toHexString());
+        when(service.getProductsByIds(ids)).thenReturn(Flux.just(p1, p2));
+
+        Flux<ProductDto> productFluxResult = webTestClient.post()
+                .uri("/products/_mget")
+                .bodyValue(ids)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ProductDto.class)
+                .getResponseBody();
+
+        StepVerifier.create(productFluxResult)
+                .expectSubscription()
+                .expectNext(AppUtils.entityToDto(p1), AppUtils.entityToDto(p2))
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Get products by ids with more ids than allowed returns 400 Bad Request")
+    void getProductsByIds_withTooManyIds_returns400BadRequest() {
+        List<String> ids = IntStream.range(0, 1001)
+                .mapToObj(i -> new ObjectId().toHexString())
+                .toList();
+
+        webTestClient.post()
+                .uri("/products/_mget")
+                .bodyValue(ids)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Export products as CSV returns the projected fields with a header")
+    void exportProducts_asCsv_returnsProjectedFields() {
+        List<Document> batch = List.of(new Document("_id", new ObjectId(p1.getId())).append("price", 20.1),
+                new Document("_id", new ObjectId(p2.getId())).append("price", 25.0));
+        when(service.exportProducts(List.of("id", "price"), 1000)).thenReturn(Flux.just(batch));
+
+        webTestClient.get()
+                .uri("/products/export?format=csv&fields=id,price")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType("text/csv;charset=UTF-8")
+                .expectBody(String.class)
+                .isEqualTo("id,price\n" + p1.getId() + ",20.1\n" + p2.getId() + ",25.0\n");
+    }
+
+    @Test
+    @DisplayName("Export products as gzipped NDJSON returns one compressed JSON object per product")
+    void exportProducts_asGzippedNdjson_returnsCompressedRows() throws IOException {
+        List<Document> batch = List.of(new Document("_id", new ObjectId(p1.getId())).append("name", "Product \"1\"").append("qty", 1));
+        when(service.exportProducts(List.of("id", "name", "qty"), 10)).thenReturn(Flux.just(batch));
+
+        byte[] body = webTestClient.get()
+                .uri("/products/export?fields=id,name,qty&batchSize=10&gzip=true")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            Assertions.assertEquals("{\"id\":\"" + p1.getId() + "\",\"name\":\"Product \\\"1\\\"\",\"qty\":1}\n",
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    @DisplayName("Export products writes prices that are not finite as null")
+    void exportProducts_withNonFinitePrice_writesNull() {
+        List<Document> batch = List.of(new Document("_id", new ObjectId(p1.getId())).append("price", Double.NaN),
+                new Document("_id", new ObjectId(p2.getId())).append("price", Double.POSITIVE_INFINITY));
+        when(service.exportProducts(List.of("id", "price"), 1000)).thenReturn(Flux.just(batch));
+
+        webTestClient.get()
+                .uri("/products/export?fields=id,price")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .isEqualTo("{\"id\":\"" + p1.getId() + "\",\"price\":null}\n{\"id\":\"" + p2.getId() + "\",\"price\":null}\n");
+    }
+
+    @Test
+    @DisplayName("Export products with an unknown field returns 400 Bad Request")
+    void exportProducts_withUnknownField_returns400BadRequest() {
+        webTestClient.get()
+                .uri("/products/export?fields=id,secret")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Search products returns 200OK with the matching Products")
+    void searchProducts_returns200OKWithMatchingProducts() {
+        when(service.searchProducts("product", 5)).thenReturn(Flux.just(p2, p1));
+
+        Flux<ProductDto> productFluxResult = webTestClient.get()
+                .uri("/products/search?q=product&limit=5")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ProductDto.class)
+                .getResponseBody();
+
+        StepVerifier.create(productFluxResult)
+                .expectSubscription()
+                .expectNext(AppUtils.entityToDto(p2), AppUtils.entityToDto(p1))
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Suggest products with a blank prefix returns 400 Bad Request")
+    void suggestProducts_withBlankPrefix_returns400BadRequest() {
+        webTestClient.get()
+                .uri("/products/search/suggest?prefix= ")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Get product statistics returns 200OK with the statistics")
+    void getProductStats_returns200OKWithStatistics() {
+        ProductStatsDto stats = new ProductStatsDto(2, 3, 70.1, 20.1, 25.0, 22.55,
+                List.of(new ProductStatsDto.PriceBucket(20.0, 30.0, 2, 3)));
+        when(service.getProductStats(20.0, null, List.of(20.0, 30.0), null)).thenReturn(Mono.just(stats));
+
+        webTestClient.get()
+                .uri("/products/stats?min=20&boundaries=20,30")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ProductStatsDto.class)
+                .isEqualTo(stats);
+    }
+
+    @Test
+    @DisplayName("Get product statistics with unordered boundaries returns 400 Bad Request")
+    void getProductStats_withUnorderedBoundaries_returns400BadRequest() {
+        webTestClient.get()
+                .uri("/products/stats?boundaries=30,20")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Get product with the version as If-None-Match returns 304 Not Modified without a body")
+    void getProductById_withMatchingETag_returns304NotModified() {
+        Product versioned = new Product(p1.getId(), p1.getName(), p1.getQty(), p1.getPrice(), 3L);
+        when(service.getProductById(p1.getId())).thenReturn(Mono.just(versioned));
+
+        webTestClient.get()
+                .uri("/products/" + p1.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"3\"")
+                .expectHeader().valueEquals(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        webTestClient.get()
+                .uri("/products/" + p1.getId())
+                .ifNoneMatch("\"3\"")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    @DisplayName("Get products with the catalog version as If-None-Match returns 304 Not Modified without querying products")
+    void getProducts_withMatchingCatalogETag_returns304WithoutQuery() {
+        webTestClient.get()
+                .uri("/products")
+                .ifNoneMatch("\"epoch-1\"")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"epoch-1\"")
+                .expectHeader().valueEquals(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+
+        verify(service, never()).getProducts(anyInt(), any());
+    }
+
     @Test
     @DisplayName("Get products within a price range with min and max returns 200OK with Products within the range")
     void getProductsByPriceRange_withValidMinAndMaxReqParam_with200OKWithCorrectProducts() {
         double min = 20;
         double max = 26;
         Flux<Product> productFlux = Flux.just(p1, p2, p3).filter(p -> p.getPrice() > min && p.getPrice() < max);
-        when(service.getProductByPriceRange(min, max)).thenReturn(productFlux);
+        when(service.getProductByPriceRange(min, max, null, null)).thenReturn(productFlux);
 
         Flux<ProductDto> productFluxResult = webTestClient.get()
                 .uri(uriBuilder -> {
@@ -107,10 +453,73 @@ public class ProductControllerTest {
         StepVerifier.create(productFluxResult)
                 .expectSubscription()
                 .expectNextMatches(p -> p.getPrice() > min && p.getPrice() < max)
+                .expectNextMatches(p -> p.getPrice() > min && p.getPrice() < max)
                 .expectComplete()
                 .verify();
     }
 
+    @Test
+    @DisplayName("Get products within a price range sorted and limited passes both to the service")
+    void getProductsByPriceRange_withSortAndLimit_returns200OKWithSortedProducts() {
+        when(service.getProductByPriceRange(20, 30, Sort.Direction.DESC, 2)).thenReturn(Flux.just(p3, p2));
+
+        Flux<ProductDto> productFluxResult = webTestClient.get()
+                .uri("/products/range?min=20&max=30&sort=desc&limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ProductDto.class)
+                .getResponseBody();
+
+        StepVerifier.create(productFluxResult)
+                .expectSubscription()
+                .expectNext(AppUtils.entityToDto(p3), AppUtils.entityToDto(p2))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Price history of a Product returns 200OK with its points in the time range")
+    void getPriceHistory_returns200OKWithPoints() {
+        Instant from = Instant.parse("2024-01-01T00:00:00Z");
+        Instant to = Instant.parse("2024-01-02T00:00:00Z");
+        PricePoint point = new PricePoint(Instant.parse("2024-01-01T10:00:00Z"), p1);
+        when(service.getPriceHistory(p1.getId(), from, to)).thenReturn(Flux.just(point));
+
+        webTestClient.get()
+                .uri("/products/{id}/history?from={from}&to={to}", p1.getId(), from, to)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(PricePointDto.class)
+                .isEqualTo(List.of(AppUtils.pricePointToDto(point)));
+    }
+
+    @Test
+    @DisplayName("Price candles with an unknown interval or an empty time range return 400 Bad Request")
+    void getPriceCandles_invalidParameters_returns400() {
+        webTestClient.get()
+                .uri("/products/{id}/history/ohlc?interval=week", p1.getId())
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get()
+                .uri("/products/{id}/history/ohlc?interval=day&from=2024-01-02T00:00:00Z&to=2024-01-01T00:00:00Z", p1.getId())
+                .exchange()
+                .expectStatus().isBadRequest();
+        verify(service, never()).getPriceCandles(any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Explain price range query returns 200OK with the query plan")
+    void explainProductByPriceRange_returns200OKWithQueryPlan() {
+        QueryPlanDto plan = new QueryPlanDto(true, "price_id", "FETCH", 2, 2, 2);
+        when(service.explainProductByPriceRange(20, 30, Sort.Direction.ASC, null)).thenReturn(Mono.just(plan));
+
+        webTestClient.get()
+                .uri("/products/range/explain?min=20&max=30&sort=asc")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(QueryPlanDto.class)
+                .isEqualTo(plan);
+    }
+
     @Test
     @DisplayName("Create Product and returns the Product created")
     void saveProduct_withProperPayload_returns201CreatedWithNewProduct() {
@@ -135,6 +544,41 @@ public class ProductControllerTest {
                 .verify();
     }
 
+    @Test
+    @DisplayName("Create Product with the id of an existing or soft deleted Product returns 409 Conflict")
+    void saveProduct_withTakenId_returns409Conflict() {
+        when(service.saveProduct(AppUtils.dtoToEntity(AppUtils.entityToDto(p1))))
+                .thenReturn(Mono.error(new DuplicateKeyException("E11000 duplicate key error")));
+
+        webTestClient.post()
+                .uri("/products")
+                .bodyValue(AppUtils.entityToDto(p1))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    @Test
+    @DisplayName("Bulk save Products from NDJSON returns 200OK with the result of each batch")
+    void bulkSaveProducts_withNdjsonPayload_returns200OKWithBatchResults() {
+        BulkWriteResultDto batchResult = new BulkWriteResultDto(0, 3, 1, 2, 0, 0);
+        when(service.bulkSaveProducts(any())).thenReturn(Flux.just(batchResult));
+
+        Flux<BulkWriteResultDto> resultFlux = webTestClient.post()
+                .uri("/products/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body(Flux.just(p1, p2, p3).map(AppUtils::entityToDto), ProductDto.class)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(BulkWriteResultDto.class)
+                .getResponseBody();
+
+        StepVerifier.create(resultFlux)
+                .expectSubscription()
+                .expectNext(batchResult)
+                .verifyComplete();
+    }
+
     @Test
     @DisplayName("Update Product and returns 200 OK with updated Product")
     void updateProduct_withProperPayload_returns200OkWithUpdatedProduct() {
@@ -157,6 +601,54 @@ public class ProductControllerTest {
                 .verify();
     }
 
+    @Test
+    @DisplayName("Update Product with a stale version returns 409 Conflict")
+    void updateProduct_withStaleVersion_returns409Conflict() {
+        ProductDto dtoRequest = AppUtils.entityToDto(p1);
+        dtoRequest.setVersion(1L);
+        String validId = p1.getId();
+        when(service.updateProduct(AppUtils.dtoToEntity(dtoRequest), validId))
+                .thenReturn(Mono.error(new OptimisticLockingFailureException("stale")));
+
+        webTestClient.put()
+                .uri("/products/" + validId)
+                .bodyValue(dtoRequest)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    @Test
+    @DisplayName("Patch Product and returns 200 OK with patched Product")
+    void patchProduct_withProperPayload_returns200OkWithPatchedProduct() {
+        ProductPatchDto patch = new ProductPatchDto(null, null, -1, null, null);
+        Product patchedProduct = new Product(p1.getId(), p1.getName(), 0, p1.getPrice());
+        String validId = p1.getId();
+        when(service.patchProduct(patch, validId)).thenReturn(Mono.just(patchedProduct));
+
+        Mono<ProductDto> dtoResponse = webTestClient.patch()
+                .uri("/products/" + validId)
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ProductDto.class)
+                .getResponseBody().single();
+
+        StepVerifier.create(dtoResponse)
+                .expectSubscription()
+                .expectNext(AppUtils.entityToDto(patchedProduct))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Patch Product setting and incrementing qty returns 400 Bad Request")
+    void patchProduct_withQtyAndQtyDelta_returns400BadRequest() {
+        webTestClient.patch()
+                .uri("/products/" + p1.getId())
+                .bodyValue(new ProductPatchDto(null, 1, -1, null, null))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
     @Test
     @DisplayName("Delete Product using valid Id returns 200OK")
     void deleteProduct_withValidId_returns200OK() {
@@ -168,4 +660,35 @@ public class ProductControllerTest {
                 .exchange()
                 .expectStatus().isOk();
     }
+
+    @Test
+    @DisplayName("Delete Products by ids returns 200OK with the number of deleted products")
+    void deleteProducts_byIds_returns200OKWithDeletedCount() {
+        List<String> ids = List.of(p1.getId(), p2.getId());
+        when(service.deleteProducts(ids, null, null)).thenReturn(Mono.just(new BulkDeleteResultDto(2, true)));
+
+        webTestClient.post()
+                .uri("/products/_delete")
+                .bodyValue(new ProductDeleteDto(ids, null, null))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(BulkDeleteResultDto.class)
+                .isEqualTo(new BulkDeleteResultDto(2, true));
+    }
+
+    @Test
+    @DisplayName("Delete Products by ids and price range at once returns 400 Bad Request")
+    void deleteProducts_withIdsAndPriceRange_returns400BadRequest() {
+        webTestClient.post()
+                .uri("/products/_delete")
+                .bodyValue(new ProductDeleteDto(List.of(p1.getId()), 10.0, null))
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.post()
+                .uri("/products/_delete")
+                .bodyValue(new ProductDeleteDto(null, null, null))
+                .exchange()
+                .expectStatus().isBadRequest();
+        verify(service, never()).deleteProducts(any(), any(), any());
+    }
 }
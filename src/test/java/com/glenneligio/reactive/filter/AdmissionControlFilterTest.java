@@ -0,0 +1,118 @@
+package com.glenneligio.reactive.filter;
+
+import com.glenneligio.reactive.config.ProductProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.PathContainer;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdmissionControlFilterTest {
+
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    void setup() {
+        ProductProperties properties = new ProductProperties();
+        properties.getAdmission().setBurst(2);
+        properties.getAdmission().setRequestsPerSecond(0.5);
+        AdmissionControlFilter filter = new AdmissionControlFilter(properties, new SimpleMeterRegistry());
+        webTestClient = WebTestClient.bindToRouterFunction(RouterFunctions.route()
+                        .GET("/products/stream", request -> ServerResponse.ok().build())
+                        .GET("/products/{id}", request -> ServerResponse.ok().build())
+                        .GET("/productsX", request -> ServerResponse.ok().build())
+                        .build())
+                .webFilter(filter)
+                .build();
+    }
+
+    @Test
+    @DisplayName("Requests over the client's burst are rejected with 429 and Retry-After")
+    void filter_overBurst_returns429WithRetryAfter() {
+        for (int i = 0; i < 2; i++) {
+            webTestClient.get().uri("/products/1").exchange().expectStatus().isOk();
+        }
+        webTestClient.get().uri("/products/1")
+                .exchange()
+                .expectStatus().isEqualTo(429)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "2");
+    }
+
+    @Test
+    @DisplayName("Clients with different API keys have their own rate limit, and the change stream is exempt")
+    void filter_perApiKeyAndExemptStream_areNotLimitedTogether() {
+        for (int i = 0; i < 2; i++) {
+            webTestClient.get().uri("/products/1").header("X-API-Key", "a").exchange().expectStatus().isOk();
+        }
+        webTestClient.get().uri("/products/1").header("X-API-Key", "b").exchange().expectStatus().isOk();
+        for (int i = 0; i < 3; i++) {
+            webTestClient.get().uri("/products/stream").header("X-API-Key", "a").exchange().expectStatus().isOk();
+        }
+        webTestClient.get().uri("/products/1").header("X-API-Key", "a").exchange().expectStatus().isEqualTo(429);
+    }
+
+    @Test
+    @DisplayName("Paths that only share the /products prefix are not rate limited")
+    void filter_siblingPrefix_isNotLimited() {
+        for (int i = 0; i < 3; i++) {
+            webTestClient.get().uri("/productsX").exchange().expectStatus().isOk();
+        }
+        webTestClient.get().uri("/products/1").exchange().expectStatus().isOk();
+    }
+
+    @Test
+    @DisplayName("Scans, multi-gets, price histories and bulk writes are heavy, point reads and writes are not")
+    void isHeavy_classifiesByMethodAndPathPattern() {
+        Assertions.assertTrue(AdmissionControlFilter.isHeavy(HttpMethod.GET, PathContainer.parsePath("/products")));
+        Assertions.assertTrue(AdmissionControlFilter.isHeavy(HttpMethod.GET, PathContainer.parsePath("/products/1/history")));
+        Assertions.assertTrue(AdmissionControlFilter.isHeavy(HttpMethod.GET, PathContainer.parsePath("/products/1/history/ohlc")));
+        Assertions.assertTrue(AdmissionControlFilter.isHeavy(HttpMethod.POST, PathContainer.parsePath("/products/_mget")));
+        Assertions.assertTrue(AdmissionControlFilter.isHeavy(HttpMethod.POST, PathContainer.parsePath("/products/bulk")));
+        Assertions.assertFalse(AdmissionControlFilter.isHeavy(HttpMethod.GET, PathContainer.parsePath("/products/1")));
+        Assertions.assertFalse(AdmissionControlFilter.isHeavy(HttpMethod.POST, PathContainer.parsePath("/products")));
+        Assertions.assertFalse(AdmissionControlFilter.isHeavy(HttpMethod.PUT, PathContainer.parsePath("/products/bulk")));
+    }
+
+    @Test
+    @DisplayName("Heavy requests only get their share of the limit, light requests can use the rest")
+    void limiter_heavyShare_leavesRoomForLightRequests() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10, 2.0, 0.5);
+
+        Assertions.assertTrue(limiter.tryAcquire(0.5));
+        Assertions.assertTrue(limiter.tryAcquire(0.5));
+        Assertions.assertFalse(limiter.tryAcquire(0.5));
+        Assertions.assertTrue(limiter.tryAcquire(1));
+        Assertions.assertTrue(limiter.tryAcquire(1));
+        Assertions.assertFalse(limiter.tryAcquire(1));
+    }
+
+    @Test
+    @DisplayName("The limit shrinks when latency rises over the baseline and grows back while it is used at fast latency")
+    void limiter_followsLatency() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10, 2.0, 0.5);
+        long fast = TimeUnit.MILLISECONDS.toNanos(2);
+
+        limiter.tryAcquire(1);
+        limiter.release(fast, false);
+        limiter.tryAcquire(1);
+        limiter.release(fast * 10, false);
+        Assertions.assertEquals(2, limiter.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire(1);
+            limiter.tryAcquire(1);
+            limiter.release(fast, false);
+            limiter.release(fast, false);
+        }
+        Assertions.assertTrue(limiter.getLimit() > 2);
+        Assertions.assertEquals(0, limiter.getInflight());
+    }
+}
@@ -0,0 +1,53 @@
+package com.glenneligio.reactive.filter;
+
+import com.glenneligio.reactive.config.ProductProperties;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+public class RequestLogFilterTest {
+
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    void setup() {
+        ProductProperties properties = new ProductProperties();
+        properties.getRequestLog().setEnabled(true);
+        properties.getRequestLog().setSampleRate(1.0);
+        webTestClient = WebTestClient.bindToRouterFunction(RouterFunctions.route()
+                        .GET("/products/{id}", request -> Mono.deferContextual(context ->
+                                ServerResponse.ok().bodyValue(context.get(RequestLogFilter.REQUEST_ID).toString())))
+                        .build())
+                .webFilter(new RequestLogFilter(properties))
+                .build();
+    }
+
+    @Test
+    @DisplayName("The request id sent by the client is echoed and available in the Reactor context")
+    void filter_withRequestId_propagatesIt() {
+        webTestClient.get().uri("/products/1")
+                .header(RequestLogFilter.REQUEST_ID_HEADER, "client-id.42")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(RequestLogFilter.REQUEST_ID_HEADER, "client-id.42")
+                .expectBody(String.class).isEqualTo("client-id.42");
+    }
+
+    @Test
+    @DisplayName("Requests without a usable request id get a generated one")
+    void filter_withInvalidRequestId_generatesOne() {
+        String body = webTestClient.get().uri("/products/1")
+                .header(RequestLogFilter.REQUEST_ID_HEADER, "not a valid id")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        Assertions.assertNotNull(body);
+        Assertions.assertTrue(body.matches("[0-9a-f]{16}"), body);
+    }
+}
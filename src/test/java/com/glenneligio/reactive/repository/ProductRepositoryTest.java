@@ -1,5 +1,7 @@
 package com.glenneligio.reactive.repository;
 
+import com.glenneligio.reactive.config.MongoClientConfig;
+import com.glenneligio.reactive.dto.ProductPatchDto;
 import com.glenneligio.reactive.entity.Product;
 import com.glenneligio.reactive.repo.ProductRepository;
 import lombok.extern.slf4j.Slf4j;
@@ -10,7 +12,13 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Range;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
@@ -21,7 +29,11 @@ import org.testcontainers.utility.DockerImageName;
 import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
+import java.time.Instant;
+import java.util.List;
+
 @DataMongoTest
+@Import(MongoClientConfig.class)
 @Testcontainers
 @Slf4j
 @ActiveProfiles("test")
@@ -30,8 +42,11 @@ public class ProductRepositoryTest {
     @Autowired
     private ProductRepository repository;
 
+    @Autowired
+    private ReactiveMongoTemplate template;
+
     @Container
-    public static MongoDBContainer container = new MongoDBContainer(DockerImageName.parse("mongo:4.4.3"));
+    public static MongoDBContainer container = new MongoDBContainer(DockerImageName.parse("mongo:5.0"));
 
     @DynamicPropertySource
     static void mongoDbProperties(DynamicPropertyRegistry registry) {
@@ -62,7 +77,7 @@ public class ProductRepositoryTest {
         double min = 20;
         double max = 26;
 
-        Flux<Product> resultProductFlux = repository.findByPriceBetween(Range.closed(min, max));
+        Flux<Product> resultProductFlux = repository.findByPriceBetweenAndDeletedAtIsNull(Range.closed(min, max));
 
         StepVerifier.create(resultProductFlux)
                 .expectSubscription()
@@ -71,4 +86,181 @@ public class ProductRepositoryTest {
                 .expectComplete()
                 .verify();
     }
+
+    @Test
+    @DisplayName("Bulk upserting Products inserts new ones and replaces existing ones")
+    void bulkUpsert_insertsNewAndReplacesExistingProducts() {
+        Product saved = repository.save(p1).block();
+        Product updatedP1 = new Product(p1.getId(), "UpdatedName1", 5, 21.0);
+        Product newProduct = new Product("Product4", 4, 40);
+
+        StepVerifier.create(repository.bulkUpsert(List.of(updatedP1, p2, newProduct)))
+                .expectSubscription()
+                .expectNextMatches(result -> result.getReceived() == 3
+                        && result.getInserted() == 1
+                        && result.getUpserted() == 1
+                        && result.getModified() == 1
+                        && result.getFailed() == 0)
+                .verifyComplete();
+
+        StepVerifier.create(repository.findById(p1.getId()))
+                .expectSubscription()
+                .expectNext(new Product(p1.getId(), "UpdatedName1", 5, 21.0, saved.getVersion() + 1))
+                .verifyComplete();
+        StepVerifier.create(repository.findById(p2.getId()).map(Product::getVersion))
+                .expectSubscription()
+                .expectNext(1L)
+                .verifyComplete();
+        StepVerifier.create(repository.findById(newProduct.getId()).map(Product::getVersion))
+                .expectSubscription()
+                .expectNext(0L)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Bulk upserting a Product with a stale version does not overwrite it and counts it as failed")
+    void bulkUpsert_withStaleVersion_countsProductAsFailed() {
+        Product saved = repository.save(p1).block();
+        Product stale = new Product(saved.getId(), "Stale", 9, 9.0, saved.getVersion() + 5);
+
+        StepVerifier.create(repository.bulkUpsert(List.of(stale)))
+                .expectSubscription()
+                .expectNextMatches(result -> result.getModified() == 0 && result.getFailed() == 1)
+                .verifyComplete();
+        StepVerifier.create(repository.findById(saved.getId()))
+                .expectSubscription()
+                .expectNext(saved)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Patching a Product increments qty and version in place and returns it as it was and as it is stored")
+    void patchProduct_incrementsQtyAndVersion() {
+        Product saved = repository.save(p1).block();
+
+        StepVerifier.create(repository.patchProduct(saved.getId(), new ProductPatchDto(null, null, 4, null, saved.getVersion())))
+                .expectSubscription()
+                .expectNextMatches(revision -> revision.previous().getQty() == p1.getQty()
+                        && revision.current().getQty() == p1.getQty() + 4
+                        && revision.current().getVersion() == saved.getVersion() + 1)
+                .verifyComplete();
+        StepVerifier.create(repository.findById(saved.getId()).map(Product::getQty))
+                .expectSubscription()
+                .expectNext(p1.getQty() + 4)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Replacing a Product with a stale version does not change it")
+    void replaceProduct_withStaleVersion_returnsEmpty() {
+        Product saved = repository.save(p1).block();
+        Product stale = new Product(saved.getId(), "Stale", 9, 9.0);
+        stale.setVersion(saved.getVersion() + 5);
+
+        StepVerifier.create(repository.replaceProduct(saved.getId(), stale))
+                .expectSubscription()
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Soft deleted Products are left out of reads and removed by a hard delete")
+    void softDeleteProducts_hidesProductsUntilDeleted() {
+        repository.save(p1).block();
+        repository.save(p2).block();
+        repository.save(p3).block();
+
+        StepVerifier.create(repository.softDeleteProducts(null, Range.closed(20.0, 26.0), Instant.now()))
+                .expectSubscription()
+                .expectNext(2L)
+                .verifyComplete();
+        StepVerifier.create(repository.findAll())
+                .expectSubscription()
+                .expectNext(p3)
+                .verifyComplete();
+        StepVerifier.create(repository.findById(p1.getId()))
+                .expectSubscription()
+                .verifyComplete();
+        StepVerifier.create(repository.findPage(null, 10))
+                .expectSubscription()
+                .expectNext(p3)
+                .verifyComplete();
+        StepVerifier.create(repository.deleteProducts(List.of(p1.getId(), p2.getId(), p3.getId()), null))
+                .expectSubscription()
+                .expectNext(3L)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("The id of a soft deleted Product cannot be inserted again or bulk upserted until it is purged")
+    void softDeletedProduct_keepsItsIdTaken() {
+        repository.save(p1).block();
+        repository.softDeleteProducts(List.of(p1.getId()), null, Instant.now()).block();
+
+        StepVerifier.create(repository.insert(new Product(p1.getId(), "Again", 1, 1.0)))
+                .expectSubscription()
+                .expectError(DuplicateKeyException.class)
+                .verify();
+        StepVerifier.create(repository.bulkUpsert(List.of(new Product(p1.getId(), "Again", 1, 1.0))))
+                .expectSubscription()
+                .expectNextMatches(result -> result.getFailed() == 1 && result.getUpserted() == 0 && result.getModified() == 0)
+                .verifyComplete();
+        StepVerifier.create(repository.findById(p1.getId()))
+                .expectSubscription()
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Explaining a sorted price range query reports the index it used")
+    void explainPriceRange_withPriceIndex_reportsIndexScan() {
+        template.indexOps(Product.class).ensureIndex(new Index().on("price", Sort.Direction.ASC).on("_id", Sort.Direction.ASC).named("price_id")).block();
+        repository.save(p1).block();
+        repository.save(p2).block();
+        repository.save(p3).block();
+
+        StepVerifier.create(repository.explainPriceRange(20, 26, Sort.Direction.ASC, 10))
+                .expectSubscription()
+                .expectNextMatches(plan -> plan.isIndexUsed()
+                        && "price_id".equals(plan.getIndexName())
+                        && plan.getReturned() == 2)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Price statistics sum stock and count products per price bucket")
+    void priceStats_withBoundaries_countsProductsPerBucket() {
+        repository.save(p1).block();
+        repository.save(p2).block();
+        repository.save(p3).block();
+
+        StepVerifier.create(repository.priceStats(null, List.of(20.0, 26.0), 10))
+                .expectSubscription()
+                .expectNextMatches(stats -> stats.getCount() == 3
+                        && stats.getTotalQty() == 5
+                        && stats.getMinPrice() == 20.1
+                        && stats.getMaxPrice() == 30
+                        && stats.getBuckets().size() == 2
+                        && stats.getBuckets().get(0).getMax() == 26.0
+                        && stats.getBuckets().get(0).getCount() == 2
+                        && stats.getBuckets().get(1).getMin() == null
+                        && stats.getBuckets().get(1).getTotalQty() == 2)
+                .verifyComplete();
+        StepVerifier.create(repository.priceStats(Range.closed(20.0, 26.0), null, 2))
+                .expectSubscription()
+                .expectNextMatches(stats -> stats.getCount() == 2 && stats.getStockValue() == 20.1 + 50)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Searching Products by name ranks the best matches first")
+    void searchByName_withTextIndex_returnsBestMatchesFirst() {
+        template.indexOps(Product.class).ensureIndex(new TextIndexDefinition.TextIndexDefinitionBuilder().onField("name").build()).block();
+        repository.save(new Product("Red Apple", 1, 1.5)).block();
+        repository.save(new Product("Red Apple Juice", 1, 3)).block();
+        repository.save(new Product("Orange", 1, 2)).block();
+
+        StepVerifier.create(repository.searchByName("apple juice", 10).map(Product::getName))
+                .expectSubscription()
+                .expectNext("Red Apple Juice", "Red Apple")
+                .verifyComplete();
+    }
 }
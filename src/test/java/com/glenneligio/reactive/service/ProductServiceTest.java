@@ -1,22 +1,47 @@
 package com.glenneligio.reactive.service;
 
+import com.glenneligio.reactive.config.ProductProperties;
+import com.glenneligio.reactive.dto.BulkWriteResultDto;
+import com.glenneligio.reactive.dto.ProductChangeEvent;
+import com.glenneligio.reactive.dto.ProductPatchDto;
+import com.glenneligio.reactive.dto.ProductStatsDto;
+import com.glenneligio.reactive.entity.PricePoint;
 import com.glenneligio.reactive.entity.Product;
+import com.glenneligio.reactive.repo.PricePointRepository;
 import com.glenneligio.reactive.repo.ProductRepository;
+import com.glenneligio.reactive.repo.ProductRepositoryCustom.Revision;
+import com.glenneligio.reactive.util.AppUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Range;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
+
 @ExtendWith(SpringExtension.class)
 @SpringBootTest
 public class ProductServiceTest {
@@ -24,9 +49,24 @@ public class ProductServiceTest {
     @Autowired
     private ProductService service;
 
+    @Autowired
+    private ProductChangeFeed changeFeed;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ProductStatsSummary statsSummary;
+
+    @Autowired
+    private ProductProperties productProperties;
+
     @MockBean
     private ProductRepository repoMock;
 
+    @SpyBean
+    private PriceHistoryRecorder priceHistory;
+
     private Product p1, p2, p3;
 
     @BeforeEach
@@ -37,12 +77,42 @@ public class ProductServiceTest {
     }
 
     @Test
-    @DisplayName("Fetch all Products")
-    void getProducts_returnAllProducts() {
+    @DisplayName("Fetch first page of Products")
+    void getProducts_returnFirstPageOfProducts() {
+        Flux<Product> expectedFlux = Flux.just(p1, p2, p3);
+        Mockito.when(repoMock.findPage(null, 3)).thenReturn(expectedFlux);
+
+        Flux<Product> resultFlux = service.getProducts(3, null);
+
+        StepVerifier.create(resultFlux)
+                .expectSubscription()
+                .expectNext(p1, p2, p3)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Fetch page of Products after a given id")
+    void getProducts_withAfterId_returnProductsAfterThatId() {
+        Flux<Product> expectedFlux = Flux.just(p2, p3);
+        Mockito.when(repoMock.findPage(p1.getId(), 2)).thenReturn(expectedFlux);
+
+        Flux<Product> resultFlux = service.getProducts(2, p1.getId());
+
+        StepVerifier.create(resultFlux)
+                .expectSubscription()
+                .expectNext(p2, p3)
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Stream all Products ordered by id")
+    void streamProducts_returnAllProducts() {
         Flux<Product> expectedFlux = Flux.just(p1, p2, p3);
-        Mockito.when(repoMock.findAll()).thenReturn(expectedFlux);
+        Mockito.when(repoMock.findAll(Sort.by("id"))).thenReturn(expectedFlux);
 
-        Flux<Product> resultFlux = service.getProducts();
+        Flux<Product> resultFlux = service.streamProducts(null);
 
         StepVerifier.create(resultFlux)
                 .expectSubscription()
@@ -66,6 +136,273 @@ public class ProductServiceTest {
                 .verify();
     }
 
+    @Test
+    @DisplayName("Fetch products by ids queries the database once without duplicate ids")
+    void getProductsByIds_queriesDistinctIdsOnce() {
+        Mockito.when(repoMock.findAllById(Set.of(p1.getId(), p2.getId()))).thenReturn(Flux.just(p1, p2));
+
+        StepVerifier.create(service.getProductsByIds(List.of(p1.getId(), p2.getId(), p1.getId())))
+                .expectSubscription()
+                .expectNext(p1, p2)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Concurrent lookups by id are coalesced into a single query")
+    void lookupBatcher_coalescesConcurrentLookups() {
+        String missingId = new ObjectId().toHexString();
+        Mockito.when(repoMock.findAllById(ArgumentMatchers.<Iterable<String>>any())).thenReturn(Flux.just(p1, p2));
+        // A window long enough that a slow machine cannot split the lookups into two batches
+        ProductProperties properties = new ProductProperties();
+        properties.getLookup().setWindow(Duration.ofMillis(500));
+        ProductLookupBatcher lookupBatcher = new ProductLookupBatcher(properties, repoMock);
+
+        Mono<List<Product>> lookups = Flux.merge(lookupBatcher.findById(p1.getId()),
+                        lookupBatcher.findById(p2.getId()),
+                        lookupBatcher.findById(p1.getId()),
+                        lookupBatcher.findById(missingId))
+                .collectList();
+
+        StepVerifier.create(lookups)
+                .expectNextMatches(products -> products.size() == 3
+                        && products.stream().filter(p1::equals).count() == 2
+                        && products.contains(p2))
+                .verifyComplete();
+        Mockito.verify(repoMock, Mockito.times(1)).findAllById(Set.of(p1.getId(), p2.getId(), missingId));
+        lookupBatcher.close();
+    }
+
+    @Test
+    @DisplayName("Lookups beyond the batches in flight are looked up one by one instead of breaking the batcher")
+    void lookupBatcher_withMoreLookupsThanBatchesInFlight_answersAll() {
+        ProductProperties properties = new ProductProperties();
+        properties.getLookup().setMaxBatchSize(2);
+        properties.getLookup().setMaxInFlightBatches(1);
+        properties.getLookup().setWindow(Duration.ofMillis(1));
+        ProductRepository repository = Mockito.mock(ProductRepository.class);
+        Mockito.when(repository.findAllById(ArgumentMatchers.<Iterable<String>>any()))
+                .thenReturn(Flux.just(p1).delayElements(Duration.ofMillis(50)));
+        Mockito.when(repository.findById(p1.getId())).thenReturn(Mono.just(p1));
+        ProductLookupBatcher batcher = new ProductLookupBatcher(properties, repository);
+
+        // Spaced out, so the window closes batches while the only slot is still busy
+        Mono<Long> found = Flux.range(0, 20)
+                .delayElements(Duration.ofMillis(5))
+                .flatMap(i -> batcher.findById(p1.getId()))
+                .count();
+
+        StepVerifier.create(found)
+                .expectNext(20L)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        StepVerifier.create(batcher.findById(p1.getId()))
+                .expectNext(p1)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        batcher.close();
+    }
+
+    @Test
+    @DisplayName("Price history points of several writes are stored together in one insert")
+    void priceHistoryRecorder_batchesPoints() {
+        ProductProperties properties = new ProductProperties();
+        properties.getHistory().setEnabled(true);
+        properties.getHistory().setFlushInterval(Duration.ofMillis(50));
+        PricePointRepository pricePointRepository = Mockito.mock(PricePointRepository.class);
+        Mockito.when(pricePointRepository.insert(ArgumentMatchers.<Iterable<PricePoint>>any())).thenReturn(Flux.empty());
+        PriceHistoryRecorder recorder = new PriceHistoryRecorder(properties, pricePointRepository, meterRegistry);
+
+        recorder.record(p1);
+        recorder.recordAll(List.of(p2, new Product("Unsaved", 1, 1)));
+
+        Mockito.verify(pricePointRepository, Mockito.timeout(1000).times(1)).insert(ArgumentMatchers.<Iterable<PricePoint>>argThat(points -> {
+            List<String> ids = StreamSupport.stream(points.spliterator(), false).map(PricePoint::getProductId).toList();
+            return ids.equals(List.of(p1.getId(), p2.getId()));
+        }));
+        recorder.close();
+    }
+
+    @Test
+    @DisplayName("Product statistics within a price range use the same closed range as the price search")
+    void getProductStats_withPriceRange_queriesClosedRange() {
+        ProductStatsDto stats = new ProductStatsDto(2, 3, 70.1, 20.1, 25.0, 22.55, List.of());
+        Mockito.when(repoMock.priceStats(Range.closed(20.0, 26.0), null, 10)).thenReturn(Mono.just(stats));
+
+        StepVerifier.create(service.getProductStats(20.0, 26.0, null, null))
+                .expectSubscription()
+                .expectNext(stats)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Concurrent readers of stale statistics share one recomputation")
+    void statsSummary_sharesOneRecomputation() {
+        ProductStatsDto stats = new ProductStatsDto(3, 5, 130.1, 20.1, 30.0, 25.03, List.of());
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<Mono<ProductStatsDto>> loader = () -> Mono.fromSupplier(() -> {
+            loads.incrementAndGet();
+            return stats;
+        }).delayElement(Duration.ofMillis(50));
+        statsSummary.invalidate();
+
+        StepVerifier.create(Flux.merge(statsSummary.get(loader), statsSummary.get(loader)))
+                .expectNext(stats, stats)
+                .verifyComplete();
+        StepVerifier.create(statsSummary.get(loader))
+                .expectNext(stats)
+                .verifyComplete();
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    @DisplayName("Suggest products without the name index matches the start of the name in the database")
+    void suggestProducts_withoutNameIndex_queriesDatabase() {
+        Mockito.when(repoMock.findByNameStartingWithIgnoreCaseAndDeletedAtIsNull("prod", PageRequest.of(0, 2, Sort.by("name")))).thenReturn(Flux.just(p1, p2));
+
+        StepVerifier.create(service.suggestProducts("prod", 2))
+                .expectSubscription()
+                .expectNext(p1, p2)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Name index suggests products by the start of any word and follows renames and deletes")
+    void nameIndex_suggestsByWordPrefix() {
+        ProductProperties properties = new ProductProperties();
+        properties.getSearch().setSuggestIndexEnabled(true);
+        ProductNameIndex nameIndex = new ProductNameIndex(properties, repoMock, changeFeed);
+        nameIndex.put(new Product(p1.getId(), "Red Apple", 1, 1.5));
+        nameIndex.put(new Product(p2.getId(), "Green Apple", 1, 1.2));
+        nameIndex.put(new Product(p3.getId(), "Apricot", 1, 2));
+
+        StepVerifier.create(nameIndex.suggest("AP", 10).map(Product::getName))
+                .expectNext("Red Apple", "Green Apple", "Apricot")
+                .verifyComplete();
+
+        nameIndex.put(new Product(p1.getId(), "Blue Berry", 1, 1.5));
+        nameIndex.remove(p3.getId());
+
+        StepVerifier.create(nameIndex.suggest("ap", 10).map(Product::getName))
+                .expectNext("Green Apple")
+                .verifyComplete();
+        StepVerifier.create(nameIndex.suggest("ber", 10).map(Product::getName))
+                .expectNext("Blue Berry")
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Saving a product changes the catalog version")
+    void saveProduct_changesCatalogVersion() {
+        Mockito.when(repoMock.save(p1)).thenReturn(Mono.just(p1));
+        String before = service.getCatalogVersion();
+
+        StepVerifier.create(service.saveProduct(p1))
+                .expectNext(p1)
+                .verifyComplete();
+
+        Assertions.assertNotEquals(before, service.getCatalogVersion());
+    }
+
+    @Test
+    @DisplayName("Fetch product by id records its latency under the service method name")
+    void getProductById_recordsServiceLatency() {
+        Mockito.when(repoMock.findById(p1.getId())).thenReturn(Mono.just(p1));
+
+        StepVerifier.create(service.getProductById(p1.getId()))
+                .expectSubscription()
+                .expectNext(p1)
+                .verifyComplete();
+
+        Timer timer = meterRegistry.find("products.service.flow.duration")
+                .tag("method", "getProductById")
+                .tag("status", "completed")
+                .timer();
+        Assertions.assertNotNull(timer);
+        Assertions.assertTrue(timer.count() >= 1);
+    }
+
+    @Test
+    @DisplayName("Fetch product by id twice only queries the database once")
+    void getProductById_calledTwice_loadsFromDatabaseOnce() {
+        Mockito.when(repoMock.findById(p1.getId())).thenReturn(Mono.just(p1));
+
+        StepVerifier.create(service.getProductById(p1.getId()).then(service.getProductById(p1.getId())))
+                .expectSubscription()
+                .expectNext(p1)
+                .verifyComplete();
+
+        Mockito.verify(repoMock, Mockito.times(1)).findById(p1.getId());
+    }
+
+    @Test
+    @DisplayName("Update product invalidates the cached product")
+    void updateProduct_invalidatesCachedProduct() {
+        Product updatedProduct = new Product(p1.getId(), "UpdatedName1", 79, 420.0);
+        Mockito.when(repoMock.findById(p1.getId())).thenReturn(Mono.just(p1), Mono.just(updatedProduct));
+        Mockito.when(repoMock.replaceProduct(p1.getId(), updatedProduct)).thenReturn(Mono.just(new Revision(p1, updatedProduct)));
+
+        Mono<Product> productMonoResult = service.getProductById(p1.getId())
+                .then(service.updateProduct(updatedProduct, p1.getId()))
+                .then(service.getProductById(p1.getId()));
+
+        StepVerifier.create(productMonoResult)
+                .expectSubscription()
+                .expectNext(updatedProduct)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Change made by another node refreshes the cached product")
+    void getProductById_afterChangeEvent_returnsChangedProduct() {
+        Product changedProduct = new Product(p1.getId(), "ChangedElsewhere", 7, 21.0);
+        Mockito.when(repoMock.findById(p1.getId())).thenReturn(Mono.just(p1));
+
+        Mono<Product> productMonoResult = service.getProductById(p1.getId())
+                .doOnNext(p -> changeFeed.publish(new ProductChangeEvent("token", "update", p1.getId(),
+                        AppUtils.entityToDto(changedProduct), Instant.now())))
+                .then(service.getProductById(p1.getId()));
+
+        StepVerifier.create(productMonoResult)
+                .expectSubscription()
+                .expectNext(changedProduct)
+                .verifyComplete();
+        Mockito.verify(repoMock, Mockito.times(1)).findById(p1.getId());
+    }
+
+    @Test
+    @DisplayName("Stream product changes only emits changes matching the filters")
+    void streamProductChanges_withFilters_emitsMatchingChanges() {
+        ProductChangeEvent cheapChange = new ProductChangeEvent("t1", "update", p1.getId(), AppUtils.entityToDto(p1), Instant.now());
+        ProductChangeEvent expensiveChange = new ProductChangeEvent("t2", "update", p3.getId(), AppUtils.entityToDto(p3), Instant.now());
+        ProductChangeEvent delete = new ProductChangeEvent("t3", "delete", p2.getId(), null, Instant.now());
+
+        StepVerifier.create(service.streamProductChanges(null, 26.0, null, null))
+                .expectSubscription()
+                .then(() -> {
+                    changeFeed.publish(cheapChange);
+                    changeFeed.publish(expensiveChange);
+                    changeFeed.publish(delete);
+                })
+                .expectNext(cheapChange, delete)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Stream product changes with a known Last-Event-ID resumes right after that event")
+    void streamProductChanges_withLastEventId_resumesAfterThatEvent() {
+        ProductChangeEvent first = new ProductChangeEvent("resume-1", "update", p1.getId(), AppUtils.entityToDto(p1), Instant.now());
+        ProductChangeEvent second = new ProductChangeEvent("resume-2", "update", p2.getId(), AppUtils.entityToDto(p2), Instant.now());
+        changeFeed.publish(first);
+        changeFeed.publish(second);
+
+        StepVerifier.create(service.streamProductChanges(null, null, Set.of(p1.getId(), p2.getId()), "resume-1"))
+                .expectSubscription()
+                .expectNext(second)
+                .thenCancel()
+                .verify();
+    }
+
     @Test
     @DisplayName("Fetching products by price range")
     void getProductByPriceRange_returnsProductsWhoPriceIsWithinRange() {
@@ -73,7 +410,7 @@ public class ProductServiceTest {
         double max = 26.0;
         Flux<Product> productFluxExpected = Flux.just(p1, p2, p3)
                 .filter(p -> p.getPrice() > min && p.getPrice() < max);
-        Mockito.when(repoMock.findByPriceBetween(Range.closed(min, max))).thenReturn(productFluxExpected);
+        Mockito.when(repoMock.findByPriceBetweenAndDeletedAtIsNull(Range.closed(min, max))).thenReturn(productFluxExpected);
 
         Flux<Product> productFluxResult = service.getProductByPriceRange(min, max);
 
@@ -84,6 +421,36 @@ public class ProductServiceTest {
                 .verify();
     }
 
+    @Test
+    @DisplayName("Fetching products by price range sorted and limited")
+    void getProductByPriceRange_withSortAndLimit_pushesBothDownToTheDatabase() {
+        PageRequest page = PageRequest.of(0, 2, Sort.by(Sort.Direction.DESC, "price", "id"));
+        Mockito.when(repoMock.findByPriceBetweenAndDeletedAtIsNull(Range.closed(20.0, 30.0), page)).thenReturn(Flux.just(p3, p2));
+
+        Flux<Product> productFluxResult = service.getProductByPriceRange(20.0, 30.0, Sort.Direction.DESC, 2);
+
+        StepVerifier.create(productFluxResult)
+                .expectSubscription()
+                .expectNext(p3, p2)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("With soft delete, saving a product only inserts it, so a soft deleted product with its id is not brought back")
+    void saveProduct_withSoftDelete_inserts() {
+        Mockito.when(repoMock.insert(p1)).thenReturn(Mono.just(p1));
+        productProperties.getDelete().setSoftDelete(true);
+        try {
+            StepVerifier.create(service.saveProduct(p1))
+                    .expectNext(p1)
+                    .verifyComplete();
+        } finally {
+            productProperties.getDelete().setSoftDelete(false);
+        }
+
+        Mockito.verify(repoMock, Mockito.never()).save(p1);
+    }
+
     @Test
     @DisplayName("Save product")
     void saveProduct_returnsNewProduct() {
@@ -99,13 +466,62 @@ public class ProductServiceTest {
                 .verify();
     }
 
+    @Test
+    @DisplayName("Bulk save products in one batch")
+    void bulkSaveProducts_returnsResultPerBatch() {
+        BulkWriteResultDto batchResult = new BulkWriteResultDto(0, 3, 1, 2, 0, 0);
+        Mockito.when(repoMock.bulkUpsert(List.of(p1, p2, p3))).thenReturn(Mono.just(batchResult));
+
+        Flux<BulkWriteResultDto> resultFlux = service.bulkSaveProducts(Flux.just(p1, p2, p3));
+
+        StepVerifier.create(resultFlux)
+                .expectSubscription()
+                .expectNext(batchResult)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Bulk save products with price history reads the batch once and records only new and changed products")
+    void bulkSaveProducts_withHistory_readsOnceAndRecordsChanges() {
+        Product unchanged = new Product(p1.getId(), p1.getName(), p1.getQty(), p1.getPrice());
+        Product repriced = new Product(p2.getId(), p2.getName(), p2.getQty(), 99.0);
+        Product created = new Product("Product4", 4, 40);
+        Mockito.doReturn(true).when(priceHistory).isEnabled();
+        Mockito.when(repoMock.findAllById(List.of(p1.getId(), p2.getId())))
+                .thenReturn(Flux.just(new Product(p1.getId(), p1.getName(), p1.getQty(), p1.getPrice(), 3L),
+                        new Product(p2.getId(), p2.getName(), p2.getQty(), p2.getPrice(), 5L)));
+        Mockito.when(repoMock.bulkUpsert(List.of(unchanged, repriced, created)))
+                .thenReturn(Mono.just(new BulkWriteResultDto(0, 3, 1, 0, 2, 0)));
+
+        StepVerifier.create(service.bulkSaveProducts(Flux.just(unchanged, repriced, created)))
+                .expectSubscription()
+                .expectNextCount(1)
+                .verifyComplete();
+        Mockito.verify(repoMock, Mockito.times(1)).findAllById(ArgumentMatchers.<Iterable<String>>any());
+        Mockito.verify(priceHistory).record(new Product(p2.getId(), p2.getName(), p2.getQty(), 99.0, 6L));
+        Mockito.verify(priceHistory).record(ArgumentMatchers.argThat(product -> "Product4".equals(product.getName())
+                && Long.valueOf(0).equals(product.getVersion())));
+        Mockito.verify(priceHistory, Mockito.times(2)).record(ArgumentMatchers.any());
+    }
+
+    @Test
+    @DisplayName("Bulk save products reports a failed batch instead of erroring")
+    void bulkSaveProducts_whenBatchFails_reportsAllProductsAsFailed() {
+        Mockito.when(repoMock.bulkUpsert(List.of(p1, p2))).thenReturn(Mono.error(new IllegalStateException("down")));
+
+        Flux<BulkWriteResultDto> resultFlux = service.bulkSaveProducts(Flux.just(p1, p2));
+
+        StepVerifier.create(resultFlux)
+                .expectSubscription()
+                .expectNext(new BulkWriteResultDto(0, 2, 0, 0, 0, 2))
+                .verifyComplete();
+    }
+
     @Test
     @DisplayName("Update product")
     void updateProduct_returnsUpdatedProduct() {
         Product updatedProduct = new Product(p1.getId(), "UpdatedName1", 79, 420.0);
-        Mono<Product> productMonoExpected = Mono.just(updatedProduct);
-        Mockito.when(repoMock.findById(p1.getId())).thenReturn(Mono.just(p1));
-        Mockito.when(repoMock.save(updatedProduct)).thenReturn(productMonoExpected);
+        Mockito.when(repoMock.replaceProduct(p1.getId(), updatedProduct)).thenReturn(Mono.just(new Revision(p1, updatedProduct)));
 
         Mono<Product> productMonoResult = service.updateProduct(updatedProduct, p1.getId());
 
@@ -113,13 +529,59 @@ public class ProductServiceTest {
                 .expectSubscription()
                 .expectNext(updatedProduct)
                 .verifyComplete();
+        Mockito.verify(priceHistory).record(updatedProduct);
+    }
+
+    @Test
+    @DisplayName("Update product with a stale version fails with a version conflict")
+    void updateProduct_withStaleVersion_errorsWithOptimisticLockingFailure() {
+        Product updatedProduct = new Product(p1.getId(), "UpdatedName1", 79, 420.0);
+        updatedProduct.setVersion(3L);
+        Mockito.when(repoMock.replaceProduct(p1.getId(), updatedProduct)).thenReturn(Mono.empty());
+        Mockito.when(repoMock.existsById(p1.getId())).thenReturn(Mono.just(true));
+
+        Mono<Product> productMonoResult = service.updateProduct(updatedProduct, p1.getId());
+
+        StepVerifier.create(productMonoResult)
+                .expectSubscription()
+                .expectError(OptimisticLockingFailureException.class)
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Patch product")
+    void patchProduct_returnsPatchedProduct() {
+        ProductPatchDto patch = new ProductPatchDto(null, null, -1, null, null);
+        Product patchedProduct = new Product(p1.getId(), p1.getName(), 0, p1.getPrice());
+        Mockito.when(repoMock.patchProduct(p1.getId(), patch)).thenReturn(Mono.just(new Revision(p1, patchedProduct)));
+
+        Mono<Product> productMonoResult = service.patchProduct(patch, p1.getId());
+
+        StepVerifier.create(productMonoResult)
+                .expectSubscription()
+                .expectNext(patchedProduct)
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Patch product that leaves price and qty as they are does not record price history")
+    void patchProduct_withoutPriceOrQtyChange_doesNotRecordHistory() {
+        ProductPatchDto patch = new ProductPatchDto("Renamed1", null, null, p1.getPrice(), null);
+        Product patchedProduct = new Product(p1.getId(), "Renamed1", p1.getQty(), p1.getPrice());
+        Mockito.when(repoMock.patchProduct(p1.getId(), patch)).thenReturn(Mono.just(new Revision(p1, patchedProduct)));
+
+        StepVerifier.create(service.patchProduct(patch, p1.getId()))
+                .expectSubscription()
+                .expectNext(patchedProduct)
+                .verifyComplete();
+        Mockito.verify(priceHistory, Mockito.never()).record(ArgumentMatchers.any());
     }
 
     @Test
     @DisplayName("Delete product")
     void deleteProduct_returnsMonoOfTypeVoid() {
         String validId = p1.getId();
-        Mockito.when(service.deleteProduct(validId)).thenReturn(Mono.empty());
+        Mockito.when(repoMock.deleteById(validId)).thenReturn(Mono.empty());
 
         Mono<Void> monoResult = service.deleteProduct(validId);
 
@@ -127,4 +589,21 @@ public class ProductServiceTest {
                 .expectSubscription()
                 .verifyComplete();
     }
+
+    @Test
+    @DisplayName("Delete products by price range in one call and drop the cached products")
+    void deleteProducts_byPriceRange_deletesWithOneCall() {
+        Mockito.when(repoMock.findById(p1.getId())).thenReturn(Mono.just(p1));
+        Mockito.when(repoMock.deleteProducts(null, Range.closed(20.0, 26.0))).thenReturn(Mono.just(2L));
+        service.getProductById(p1.getId()).block();
+
+        StepVerifier.create(service.deleteProducts(null, 20.0, 26.0))
+                .expectSubscription()
+                .expectNextMatches(result -> result.getDeleted() == 2 && !result.isSoft())
+                .verifyComplete();
+        service.getProductById(p1.getId()).block();
+
+        Mockito.verify(repoMock, Mockito.times(1)).deleteProducts(null, Range.closed(20.0, 26.0));
+        Mockito.verify(repoMock, Mockito.times(2)).findById(p1.getId());
+    }
 }